@@ -1,6 +1,7 @@
 package com.fourstack.game;
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.audio.Music;
 import com.badlogic.gdx.audio.Sound;
 import com.badlogic.gdx.graphics.Color;
@@ -18,11 +19,22 @@ import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.scenes.scene2d.utils.ClickListener;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.Interpolation;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGenerator;
 import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGenerator.FreeTypeFontParameter;
+import com.fourstack.game.engine.Ai;
+import com.fourstack.game.engine.AiWorker;
+import com.fourstack.game.engine.Difficulty;
+import com.fourstack.game.engine.Game;
+import com.fourstack.game.engine.GameListener;
+import com.fourstack.game.engine.OpeningBook;
+import com.fourstack.game.engine.PatternWeights;
+import com.fourstack.game.engine.PowerUp;
+import com.fourstack.game.engine.Position;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 class FallingPiece {
     float x, y, targetY, speed;
@@ -91,7 +103,7 @@ class BlastEffect {
     }
 }
 
-public class FourStack extends ApplicationAdapter {
+public class FourStack extends ApplicationAdapter implements GameListener {
         
     int tutorialStage = 0; 
 
@@ -117,20 +129,16 @@ public class FourStack extends ApplicationAdapter {
 
     float innerX, innerY, innerW, innerH;
     float cellWidth, cellHeight;
-    enum Difficulty { EASY, MEDIUM, HARD }
-    Difficulty currentDifficulty = Difficulty.MEDIUM; 
-    int scoreGoal = 1000; 
-    int score = 0;      
-    int aiScore = 0;    
-    int ROWS = 6;
-    int COLS = 7;
-    int comboMultiplier = 0;
+    /** Board the next game starts on; the tutorial borrows the standard one without changing this. */
+    int boardRows = 6;
+    int boardCols = 7;
+    int boardLineLength = Position.DEFAULT_LINE_LENGTH;
     float shakeTimer = 0;
     float shakeIntensity = 0;
     
-    int[][] grid = new int[ROWS][COLS];
-
-    int currentPlayer = 1; 
+    Game game = new Game(boardRows, boardCols, boardLineLength);
+    Ai ai = new Ai();
+    AiWorker aiWorker = new AiWorker(ai);
 
     SpriteBatch batch;
     Texture board;
@@ -204,24 +212,9 @@ public class FourStack extends ApplicationAdapter {
     private Image currentCharacterImg;
     private Image currentTextBoxImg;
 
-    enum PowerUp { NONE, BULLET, STAR, EIGHT, COIN, BOMB }
     Texture bulletTex, starTex, eightTex, coinTex, bombTex;
     Texture[] powerUpList;
     
-    int p1LinesCleared = 0;
-    int p2LinesCleared = 0;
-    PowerUp p1PowerUp = PowerUp.NONE;
-    PowerUp p2PowerUp = PowerUp.NONE;
-
-    boolean p1TimerStopped = false;
-    boolean p2TimerStopped = false;
-    PowerUp activeTargeting = PowerUp.NONE;
-    boolean bulletIsRow = false;
-
-    boolean isShuffling1 = false;
-    boolean isShuffling2 = false;
-    float shuffleTimer1 = 0f;
-    float shuffleTimer2 = 0f;
     int shuffleIndex1 = 0;
     int shuffleIndex2 = 0;
 
@@ -234,16 +227,14 @@ public class FourStack extends ApplicationAdapter {
     enum GameState { INTRO, MODE_SELECT, SETTINGS, TUTORIAL, PLAYING, PLAYER_WIN, AI_WIN, TIME_UP, PAUSED }
     GameState gameState = GameState.INTRO;
 
-    float p1TimeRemaining;
-    float p2TimeRemaining;
-    int p1Combo = 1;
-    int p2Combo = 1;
     float endGameTimer = 1.5f;
 
-    Random random = new Random();
     float aiMoveDelay = 0.65f;
     float aiTimer = 0f;
     boolean aiNeedsToMove = false;
+    boolean aiThinking = false;
+    boolean aiPondering = false;
+    long ponderedState;
     private Image pauseTriggerBtn;
     private boolean comingFromPause = false; 
     private Image easyBtnPause, medBtnPause, hardBtnPause;
@@ -251,6 +242,12 @@ public class FourStack extends ApplicationAdapter {
 
 @Override
 public void create() {
+    // The render thread keeps one core; HARD searches on the rest.
+    ai.threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    ai.targeting.threads = ai.threads;
+    loadOpeningBook();
+    loadPatternWeights();
+
     batch = new SpriteBatch();
     border = new Texture("border.png");
     border2p = new Texture("border2p.png");
@@ -355,6 +352,7 @@ public void create() {
 
     introTable.setVisible(true);
     gameTable.setVisible(false);
+    game.listener = this;
 }
 
 private void createIntroUI() {
@@ -441,8 +439,8 @@ private void createModeUI() {
     easyBtn.addListener(new ClickListener() {
         @Override
         public void clicked(InputEvent event, float x, float y) {
-            scoreGoal = 1000;
-            currentDifficulty = Difficulty.EASY;
+            game.scoreGoal = 1000;
+            game.currentDifficulty = Difficulty.EASY;
             updateDifficultyGlow(easyBtn);
         }
     });
@@ -450,8 +448,8 @@ private void createModeUI() {
     medBtn.addListener(new ClickListener() {
         @Override
         public void clicked(InputEvent event, float x, float y) {
-            scoreGoal = 3000;
-            currentDifficulty = Difficulty.MEDIUM;
+            game.scoreGoal = 3000;
+            game.currentDifficulty = Difficulty.MEDIUM;
             updateDifficultyGlow(medBtn);
         }
     });
@@ -459,8 +457,8 @@ private void createModeUI() {
     hardBtn.addListener(new ClickListener() {
         @Override
         public void clicked(InputEvent event, float x, float y) {
-            scoreGoal = 5000;
-            currentDifficulty = Difficulty.HARD;
+            game.scoreGoal = 5000;
+            game.currentDifficulty = Difficulty.HARD;
             updateDifficultyGlow(hardBtn);
         }
     });
@@ -492,7 +490,7 @@ private void createModeUI() {
         modeTable.add(p1Btn).width(226).height(57).padBottom(30).row();
         modeTable.add(p2Btn).width(226).height(57).padBottom(30).row();
         modeTable.add(backBtn).width(226).height(57).padBottom(30);
-        scoreGoal = 3000;            
+        game.scoreGoal = 3000;            
         updateDifficultyGlow(medBtn);
 }
 
@@ -599,14 +597,15 @@ private void createPauseUI() {
         @Override
         public void clicked(InputEvent event, float x, float y) {
             gameState = GameState.INTRO;
+            cancelAiThinking();
             pauseTable.setVisible(false);
             pauseExitTable.setVisible(false); 
             gameHudGroup.setVisible(false);
             introTable.setVisible(true);
             exitTable.setVisible(true);  
             
-            scoreGoal = 3000;
-            currentDifficulty = Difficulty.MEDIUM;
+            game.scoreGoal = 3000;
+            game.currentDifficulty = Difficulty.MEDIUM;
             updateDifficultyGlow(medBtn); 
             updateDifficultyGlowPause(medBtnPause);
         }
@@ -628,10 +627,10 @@ private void createPauseUI() {
     easyBtnPause.addListener(new ClickListener() {
         @Override
         public void clicked(InputEvent event, float x, float y) {
-            scoreGoal = 1000;
-            currentDifficulty = Difficulty.EASY;
-            p1TimeRemaining = 120f;
-            p2TimeRemaining = 120f;
+            game.scoreGoal = 1000;
+            game.currentDifficulty = Difficulty.EASY;
+            game.p1TimeRemaining = 120f;
+            game.p2TimeRemaining = 120f;
             updateDifficultyGlowPause(easyBtnPause);
         }
     });
@@ -639,10 +638,10 @@ private void createPauseUI() {
     medBtnPause.addListener(new ClickListener() {
         @Override
         public void clicked(InputEvent event, float x, float y) {
-            scoreGoal = 3000;
-            currentDifficulty = Difficulty.MEDIUM;
-            p1TimeRemaining = 100f;
-            p2TimeRemaining = 100f;
+            game.scoreGoal = 3000;
+            game.currentDifficulty = Difficulty.MEDIUM;
+            game.p1TimeRemaining = 100f;
+            game.p2TimeRemaining = 100f;
             updateDifficultyGlowPause(medBtnPause);
         }
     });
@@ -650,10 +649,10 @@ private void createPauseUI() {
     hardBtnPause.addListener(new ClickListener() {
         @Override
         public void clicked(InputEvent event, float x, float y) {
-            scoreGoal = 5000;
-            currentDifficulty = Difficulty.HARD;
-            p1TimeRemaining = 80f;
-            p2TimeRemaining = 80f;
+            game.scoreGoal = 5000;
+            game.currentDifficulty = Difficulty.HARD;
+            game.p1TimeRemaining = 80f;
+            game.p2TimeRemaining = 80f;
             updateDifficultyGlowPause(hardBtnPause);
         }
     });
@@ -764,7 +763,9 @@ private void startTutorialGameplay() {
     gameState = GameState.TUTORIAL;
     
     
-    grid = new int[ROWS][COLS];
+    // The ghost moves are scripted for the standard board.
+    game.setBoard(6, 7, Position.DEFAULT_LINE_LENGTH);
+    game.startTutorial();
     activeFallingPieces.clear();
     activeSweeps.clear();
     blastEffects.clear();
@@ -773,7 +774,6 @@ private void startTutorialGameplay() {
     ghostMoveIndex = 0;
     tutorialStage = 0;
     ghostTimer = 0f;
-    currentPlayer = 1; 
     
     
     introTable.setVisible(false);
@@ -803,14 +803,15 @@ private void createPlayAgainUI() {
         @Override
         public void clicked(InputEvent event, float x, float y) {
             gameState = GameState.INTRO;
+            cancelAiThinking();
             playAgainTable.setVisible(false);
             gameTable.setVisible(false);
             gameHudGroup.setVisible(false);
             introTable.setVisible(true);
             if (exitTable != null) exitTable.setVisible(true);
 
-            scoreGoal = 3000;
-            currentDifficulty = Difficulty.MEDIUM;
+            game.scoreGoal = 3000;
+            game.currentDifficulty = Difficulty.MEDIUM;
             updateDifficultyGlow(medBtn); 
             updateDifficultyGlowPause(medBtnPause);
         }
@@ -926,14 +927,15 @@ private void createGameUI() {
                         
                         stateBeforePause = gameState; 
                         gameState = GameState.PAUSED;
+                        cancelAiThinking();
                         pauseTable.setVisible(true); 
                         pauseTable.toFront();   
                         pauseExitTable.setVisible(true);
                         pauseExitTable.toFront();
                         
-                        if (currentDifficulty == Difficulty.EASY) updateDifficultyGlowPause(easyBtnPause);
-                        else if (currentDifficulty == Difficulty.MEDIUM) updateDifficultyGlowPause(medBtnPause);
-                        else if (currentDifficulty == Difficulty.HARD) updateDifficultyGlowPause(hardBtnPause);
+                        if (game.currentDifficulty == Difficulty.EASY) updateDifficultyGlowPause(easyBtnPause);
+                        else if (game.currentDifficulty == Difficulty.MEDIUM) updateDifficultyGlowPause(medBtnPause);
+                        else if (game.currentDifficulty == Difficulty.HARD) updateDifficultyGlowPause(hardBtnPause);
                     }
                 }
             });
@@ -948,10 +950,10 @@ private void updateStatusImage() {
 
     
     if (gameState == GameState.PLAYING) {
-        if (currentPlayer == 1) {
+        if (game.currentPlayer == 1) {
             targetTex = p1TurnTex;
             targetClTex = p1TurnClTex;
-        } else if (currentPlayer == 2) {
+        } else if (game.currentPlayer == 2) {
             targetTex = isTwoPlayer ? p2TurnTex : aiTurnTex;
             targetClTex = isTwoPlayer ? p2TurnClTex : aiTurnClTex;
         }
@@ -993,35 +995,21 @@ private void updateStatusImage() {
 }
 
 private void startGame() {
-    grid = new int[ROWS][COLS];
-    gameState = GameState.PLAYING;
-
-    float startTime;
-    if (scoreGoal == 1000)      startTime = 120f; 
-    else if (scoreGoal == 3000) startTime = 100f; 
-    else                        startTime = 80f;  
+    startGame(boardRows, boardCols, boardLineLength);
+}
 
-    p1TimeRemaining = startTime;
-    p2TimeRemaining = startTime;
+void startGame(int rows, int cols, int lineLength) {
+    boardRows = rows;
+    boardCols = cols;
+    boardLineLength = lineLength;
+    game.setBoard(rows, cols, lineLength);
+    game.isTwoPlayer = isTwoPlayer;
+    game.start();
+    gameState = GameState.PLAYING;
 
-    currentPlayer = 1;
+    cancelAiThinking();
     aiNeedsToMove = false;
     aiTimer = 0f;
-    aiScore = 0;
-    score = 0;
-    comboMultiplier = 0;
-
-    p1PowerUp = PowerUp.NONE;
-    p2PowerUp = PowerUp.NONE;
-    p1LinesCleared = 0;
-    p2LinesCleared = 0;
-    p1TimerStopped = false;
-    p2TimerStopped = false;
-    activeTargeting = PowerUp.NONE;
-    isShuffling1 = false;
-    isShuffling2 = false;
-    shuffleTimer1 = 0f;
-    shuffleTimer2 = 0f;
     endGameTimer = 1.5f;
     statusLabel.setVisible(false);
     introTable.setVisible(false);
@@ -1073,62 +1061,42 @@ float scale = 2.5f;
     innerW = frameWidth - framePadLeft - framePadRight;
     innerH = frameHeight - framePadTop - framePadBottom;
 
-    cellWidth = innerW / COLS;
-    cellHeight = innerH / ROWS;
+    cellWidth = innerW / game.position.cols;
+    cellHeight = innerH / game.position.rows;
 
     if (gameState == GameState.INTRO) {
     } else if (gameState == GameState.PLAYING) {
-        if (currentPlayer == 1) {
-            if (!p1TimerStopped) { 
-                p1TimeRemaining -= deltaTime;
-                if (p1TimeRemaining <= 0) {
-                    p1TimeRemaining = 0;
-                    gameState = GameState.TIME_UP; 
-                    loseSound.play(masterVolume); 
-                }
-            }
-        } else if (currentPlayer == 2 && isTwoPlayer) {
-            if (!p2TimerStopped) {
-            p2TimeRemaining -= deltaTime; 
-            if (p2TimeRemaining <= 0) {
-                p2TimeRemaining = 0;
-                gameState = GameState.TIME_UP;
-                winSound.play(masterVolume);   
-            }
-        }
-    }
+        game.tick(deltaTime);
 
-    if (currentPlayer != 0) {
-        if (currentPlayer == 1 || (isTwoPlayer && currentPlayer == 2)) {
+    if (game.currentPlayer != 0) {
+        if (game.currentPlayer == 1 || (isTwoPlayer && game.currentPlayer == 2)) {
             if (Gdx.input.justTouched()) {
                     com.badlogic.gdx.math.Vector2 touch = new com.badlogic.gdx.math.Vector2(Gdx.input.getX(), Gdx.input.getY());
                     viewport.unproject(touch);
                     
                     
                     float pW = 700 * powerUpScale;
-                    if (currentPlayer == 1 && p1PowerUp != PowerUp.NONE && touch.x >= p1PowerUpX && touch.x <= p1PowerUpX + pW && touch.y >= p1PowerUpY && touch.y <= p1PowerUpY + pW) {
-                        activatePowerUp(p1PowerUp, 1);
-                        p1PowerUp = PowerUp.NONE;
+                    if (game.currentPlayer == 1 && game.p1PowerUp != PowerUp.NONE && touch.x >= p1PowerUpX && touch.x <= p1PowerUpX + pW && touch.y >= p1PowerUpY && touch.y <= p1PowerUpY + pW) {
+                        game.usePowerUp(1);
                     } 
-                    else if (currentPlayer == 2 && isTwoPlayer && p2PowerUp != PowerUp.NONE && touch.x >= p2PowerUpX && touch.x <= p2PowerUpX + pW && touch.y >= p2PowerUpY && touch.y <= p2PowerUpY + pW) {
-                        activatePowerUp(p2PowerUp, 2);
-                        p2PowerUp = PowerUp.NONE;
+                    else if (game.currentPlayer == 2 && isTwoPlayer && game.p2PowerUp != PowerUp.NONE && touch.x >= p2PowerUpX && touch.x <= p2PowerUpX + pW && touch.y >= p2PowerUpY && touch.y <= p2PowerUpY + pW) {
+                        game.usePowerUp(2);
                     }
                     
                     
-                    else if (activeTargeting != PowerUp.NONE) {
+                    else if (game.activeTargeting != PowerUp.NONE) {
                         if (touch.x >= innerX && touch.x <= innerX + innerW) {
                             int col = (int) ((touch.x - innerX) / cellWidth);
                             int row = (int) ((innerY + innerH - touch.y) / cellHeight); 
                             
-                            if (row >= 0 && row < ROWS && col >= 0 && col < COLS) {
+                            if (row >= 0 && row < game.position.rows && col >= 0 && col < game.position.cols) {
                                 executeTargeting(col, row);
                             }
                         }
                     }
                     
                     
-                    else if (touch.x >= innerX && touch.x <= innerX + innerW && activeTargeting == PowerUp.NONE) {
+                    else if (touch.x >= innerX && touch.x <= innerX + innerW && game.activeTargeting == PowerUp.NONE) {
                         int col = (int) ((touch.x - innerX) / cellWidth);
                         executeMove(col); 
                     }
@@ -1136,12 +1104,30 @@ float scale = 2.5f;
         }
     }
 
+    // On HARD the AI keeps searching through the player's turn, starting over whenever the position changes under it.
+    if (!isTwoPlayer && !aiNeedsToMove && game.currentPlayer == 1 && game.currentDifficulty == Difficulty.HARD
+            && game.activeTargeting == PowerUp.NONE && (!aiPondering || ponderedState != game.stateKey())) {
+        aiWorker.ponder(game);
+        aiPondering = true;
+        ponderedState = game.stateKey();
+    }
+
     if (aiNeedsToMove) {
         aiTimer += deltaTime;
-        if (aiTimer >= aiMoveDelay) {
-            makeAIMove();
+        if (!aiThinking) {
+            startAiThinking();
+        }
+        // The AI thinks for up to aiMoveDelay but never answers sooner.
+        AiWorker.Decision decision = (aiTimer >= aiMoveDelay) ? aiWorker.poll() : null;
+        if (decision != null) {
+            aiThinking = false;
             aiTimer = 0f;
             aiNeedsToMove = false;
+            if (decision.arm) game.usePowerUp(game.currentPlayer);
+            if (decision.target && game.activeTargeting != PowerUp.NONE) executeTargeting(decision.col, decision.row);
+            // Nothing left to hit after all: the power-up went back in hand, so think again.
+            else if (decision.target) aiNeedsToMove = true;
+            else if (decision.col != -1) executeMove(decision.col);
         }
     }
 }
@@ -1152,8 +1138,8 @@ Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
 viewport.apply();
 if (shakeTimer > 0) {
     shakeTimer -= deltaTime;
-    float currentShakeX = (random.nextFloat() - 0.5f) * 2 * shakeIntensity;
-    float currentShakeY = (random.nextFloat() - 0.5f) * 2 * shakeIntensity;
+    float currentShakeX = (game.cosmeticRandom.nextFloat() - 0.5f) * 2 * shakeIntensity;
+    float currentShakeY = (game.cosmeticRandom.nextFloat() - 0.5f) * 2 * shakeIntensity;
     viewport.getCamera().translate(currentShakeX, currentShakeY, 0);
 } else {
     viewport.getCamera().position.set(VIRTUAL_WIDTH / 2f, VIRTUAL_HEIGHT / 2f, 0);
@@ -1212,9 +1198,9 @@ if (gameState != GameState.INTRO && gameState != GameState.MODE_SELECT && gameSt
 
         if (p.y <= p.targetY) {
             popSound.play(masterVolume * 0.5f);
-            grid[p.row][p.col] = p.player;
             activeFallingPieces.remove(i);
-            finalizeTurn(p.col, p.player);
+            statusLabel.setVisible(false);
+            game.land(p.row, p.col, p.player);
         }
     }
 
@@ -1241,24 +1227,23 @@ if (gameState != GameState.INTRO && gameState != GameState.MODE_SELECT && gameSt
                 if (tutorialStage > 2) tutorialStage = 0; 
                 
                 
-                grid = new int[ROWS][COLS];
+                game.startTutorial();
                 activeFallingPieces.clear();
                 activeSweeps.clear();
                 blastEffects.clear();
                 ghostMoveIndex = 0;
                 ghostTimer = 0f;
-                currentPlayer = 1;
             }
         }
     }
 
-    for (int r = 0; r < ROWS; r++) {
-        for (int c = 0; c < COLS; c++) {
-            if (grid[r][c] != 0) {
-                float size = Math.min(cellWidth, cellHeight) * 0.99f;
-                float pieceX = innerX + c * cellWidth + (cellWidth - size) / 1f + 2.2f;
-                float pieceY = innerY + (ROWS - 1 - r) * cellHeight + (cellHeight - size) / 1f - 3f;
-                Texture piece = (grid[r][c] == 1) ? yellowPiece : redPiece;
+    float size = Math.min(cellWidth, cellHeight) * 0.99f;
+    for (int c = 0; c < game.position.cols; c++) {
+        float pieceX = innerX + c * cellWidth + (cellWidth - size) / 1f + 2.2f;
+        for (int player = 1; player <= 2; player++) {
+            Texture piece = (player == 1) ? yellowPiece : redPiece;
+            for (long column = game.position.column(player, c); column != 0; column &= column - 1) {
+                float pieceY = innerY + Long.numberOfTrailingZeros(column) * cellHeight + (cellHeight - size) / 1f - 3f;
                 batch.draw(piece, pieceX, pieceY, size, size);
             }
         }
@@ -1301,7 +1286,7 @@ if (gameState != GameState.INTRO && gameState != GameState.MODE_SELECT && gameSt
     batch.draw(frame, frameX, frameY, frameWidth, frameHeight);
 }
 
-if (gameState == GameState.PLAYING && (currentPlayer == 1 || (isTwoPlayer && currentPlayer == 2))) {
+if (gameState == GameState.PLAYING && (game.currentPlayer == 1 || (isTwoPlayer && game.currentPlayer == 2))) {
     com.badlogic.gdx.math.Vector2 mouse = new com.badlogic.gdx.math.Vector2(Gdx.input.getX(), Gdx.input.getY());
     viewport.unproject(mouse);
 
@@ -1309,12 +1294,12 @@ if (gameState == GameState.PLAYING && (currentPlayer == 1 || (isTwoPlayer && cur
         int hoverCol = (int) ((mouse.x - innerX) / cellWidth);
         float size = Math.min(cellWidth, cellHeight) * 0.99f;
         float previewX = innerX + hoverCol * cellWidth + (cellWidth - size) / 1f + 2.2f;
-        float previewY = innerY + ROWS * cellHeight + 10;
+        float previewY = innerY + game.position.rows * cellHeight + 10;
 
         
-        Texture previewTex = (currentPlayer == 1) ? yellowPiece : redPiece;
+        Texture previewTex = (game.currentPlayer == 1) ? yellowPiece : redPiece;
 
-        if (grid[0][hoverCol] == 0) {
+        if (game.position.get(0, hoverCol) == 0) {
             batch.setColor(1, 1, 1, 0.5f); 
         } else {
             batch.setColor(1, 0, 0, 0.7f); 
@@ -1330,40 +1315,27 @@ if (gameState == GameState.PLAYING || gameState == GameState.PAUSED) {
     float pH = 700 * powerUpScale;
 
     
-    if (isShuffling1) {
+    if (game.isShuffling1) {
         
         if (gameState == GameState.PLAYING) {
-            shuffleTimer1 -= deltaTime;
-            if ((int)(shuffleTimer1 * 10) % 2 == 0) shuffleIndex1 = (shuffleIndex1 + 1) % 5;
+            if ((int)(game.shuffleTimer1 * 10) % 2 == 0) shuffleIndex1 = (shuffleIndex1 + 1) % 5;
         }
         
-        if (shuffleTimer1 > 0) {
-            batch.draw(powerUpList[shuffleIndex1], p1PowerUpX, p1PowerUpY, pW, pH);
-        } else {
-            
-            isShuffling1 = false;
-            p1PowerUp = PowerUp.values()[random.nextInt(5) + 1]; 
-        }
-    } else if (p1PowerUp != PowerUp.NONE) {
-        batch.draw(getTextureForPowerUp(p1PowerUp), p1PowerUpX, p1PowerUpY, pW, pH);
+        batch.draw(powerUpList[shuffleIndex1], p1PowerUpX, p1PowerUpY, pW, pH);
+    } else if (game.p1PowerUp != PowerUp.NONE) {
+        batch.draw(getTextureForPowerUp(game.p1PowerUp), p1PowerUpX, p1PowerUpY, pW, pH);
     }
 
     
-    if (isShuffling2) {
+    if (game.isShuffling2) {
         
         if (gameState == GameState.PLAYING) {
-            shuffleTimer2 -= deltaTime;
-            if ((int)(shuffleTimer2 * 10) % 2 == 0) shuffleIndex2 = (shuffleIndex2 + 1) % 5;
+            if ((int)(game.shuffleTimer2 * 10) % 2 == 0) shuffleIndex2 = (shuffleIndex2 + 1) % 5;
         }
         
-        if (shuffleTimer2 > 0) {
-            batch.draw(powerUpList[shuffleIndex2], p2PowerUpX, p2PowerUpY, pW, pH);
-        } else {
-            isShuffling2 = false;
-            p2PowerUp = PowerUp.values()[random.nextInt(5) + 1];
-        }
-    } else if (p2PowerUp != PowerUp.NONE) {
-        batch.draw(getTextureForPowerUp(p2PowerUp), p2PowerUpX, p2PowerUpY, pW, pH);
+        batch.draw(powerUpList[shuffleIndex2], p2PowerUpX, p2PowerUpY, pW, pH);
+    } else if (game.p2PowerUp != PowerUp.NONE) {
+        batch.draw(getTextureForPowerUp(game.p2PowerUp), p2PowerUpX, p2PowerUpY, pW, pH);
     }
 }
 
@@ -1378,17 +1350,6 @@ stage.act(deltaTime);
 stage.draw();
 }
 
-boolean dropPiece(int col, int player) {
-    if (col < 0 || col >= COLS) return false;
-    
-    for (int row = ROWS - 1; row >= 0; row--) {
-        if (grid[row][col] == 0) {
-            grid[row][col] = player;
-            return true;
-        }
-    }
-    return false;
-}
 
 
 void displayEndGameMessage() {
@@ -1398,213 +1359,59 @@ void displayEndGameMessage() {
     }
 }
 
-void makeAIMove() {
-    if (p2PowerUp != PowerUp.NONE && !isShuffling2) {
-        PowerUp usedPowerUp = p2PowerUp;
-        activatePowerUp(p2PowerUp, 2);
-        p2PowerUp = PowerUp.NONE;
-        
-        if (usedPowerUp == PowerUp.BOMB) {
-            
-            java.util.List<int[]> validTargets = new java.util.ArrayList<>();
-            for (int r = 0; r < ROWS; r++) {
-                for (int c = 0; c < COLS; c++) {
-                    if (grid[r][c] != 0) validTargets.add(new int[]{r, c});
-                }
-            }
-            if (!validTargets.isEmpty()) {
-                int[] target = validTargets.get(random.nextInt(validTargets.size()));
-                executeTargeting(target[1], target[0]);
-            } else {
-                activeTargeting = PowerUp.NONE;
-            }
-            return;
-            
-    } else if (usedPowerUp == PowerUp.BULLET) {
-
-            if (bulletIsRow) {
-                executeTargeting(0, random.nextInt(ROWS));
-            } else {
-                executeTargeting(random.nextInt(COLS), 0);
-            }
-            return; 
-        }
-    }
-    
-    int chosenCol = -1;
-
-    chosenCol = findWinningMove(2);
-
-    if (chosenCol == -1) {
-        int blockCol = findWinningMove(1);
-        if (blockCol != -1) {
-            boolean causesDeath = (grid[1][blockCol] != 0); 
-            
-            if (!causesDeath) {
-                if (currentDifficulty == Difficulty.HARD || 
-                   (currentDifficulty == Difficulty.MEDIUM && random.nextFloat() > 0.4f)) {
-                    chosenCol = blockCol;
-                }
-            }
-        }
-    }
-
-    if (chosenCol == -1) {
-        List<Integer> safeCols = new ArrayList<>();
-        List<Integer> safeFromDeathCols = new ArrayList<>();
-        
-        for (int c = 0; c < COLS; c++) {
-            if (grid[0][c] == 0) {
-
-                if (grid[1][c] == 0) {
-                    safeFromDeathCols.add(c);
-                    
-                    int targetRow = -1;
-                    for (int r = ROWS - 1; r >= 0; r--) {
-                        if (grid[r][c] == 0) { targetRow = r; break; }
-                    }
-
-                    grid[targetRow][c] = 2; 
-                    boolean givesWinToPlayer = false;
-                    
-                    if (targetRow > 0) {
-                        grid[targetRow - 1][c] = 1;
-                        givesWinToPlayer = checkWin(1); 
-                        grid[targetRow - 1][c] = 0; 
-                    }
-                    
-                    grid[targetRow][c] = 0; 
-                    
-                    if (!givesWinToPlayer) safeCols.add(c);
-                }
-            }
-        }
-        
-        if (!safeCols.isEmpty()) {
-            if (currentDifficulty == Difficulty.HARD) {
-                int bestCol = safeCols.get(0);
-                int closestDist = 999;
-                
-                for (int c : safeCols) {
-                    int dist = Math.abs(c - 3); // 3 is center
-                    if (dist < closestDist || (dist == closestDist && random.nextBoolean())) {
-                        closestDist = dist;
-                        bestCol = c;
-                    }
-                }
-                chosenCol = bestCol;
-            } else if (currentDifficulty == Difficulty.MEDIUM) {
-                chosenCol = safeCols.get(random.nextInt(safeCols.size()));
-            }
-        }
-
-        if (chosenCol == -1) {
-            if (!safeFromDeathCols.isEmpty()) {
-                chosenCol = safeFromDeathCols.get(random.nextInt(safeFromDeathCols.size()));
-            } else {
-                List<Integer> validCols = new ArrayList<>();
-                for (int c = 0; c < COLS; c++) {
-                    if (grid[0][c] == 0) validCols.add(c);
-                }
-                if (!validCols.isEmpty()) chosenCol = validCols.get(random.nextInt(validCols.size()));
-            }
-        }
+/**
+ * Maps HARD's opening book. Assets can sit inside a jar or APK, which cannot be mapped, so the book is copied to local
+ * storage first. Without a book HARD just searches its opening moves too.
+ */
+void loadOpeningBook() {
+    FileHandle asset = Gdx.files.internal("opening.book");
+    if (!asset.exists()) return;
+    try {
+        FileHandle local = Gdx.files.local("opening.book");
+        if (!local.exists() || local.length() != asset.length()) asset.copyTo(local);
+        ai.book = OpeningBook.open(local.file().toPath());
+    } catch (IOException | GdxRuntimeException e) {
+        Gdx.app.error("FourStack", "Opening book not loaded", e);
     }
+}
 
-    if (chosenCol != -1) {
-        executeMove(chosenCol);
+/** Loads the learned pattern values HARD evaluates with. Without them it uses its hand-written terms only. */
+void loadPatternWeights() {
+    FileHandle asset = Gdx.files.internal("patterns.weights");
+    if (!asset.exists()) return;
+    try (InputStream in = asset.read()) {
+        ai.patterns = PatternWeights.read(in);
+    } catch (IOException | GdxRuntimeException e) {
+        Gdx.app.error("FourStack", "Pattern weights not loaded", e);
     }
 }
 
-int findWinningMove(int player) {
-    for (int c = 0; c < COLS; c++) {
-        
-        int targetRow = -1;
-        for (int r = ROWS - 1; r >= 0; r--) {
-            if (grid[r][c] == 0) {
-                targetRow = r;
-                break;
-            }
-        }
-        
-        if (targetRow != -1) {
-            grid[targetRow][c] = player;
-            boolean wins = checkWin(player);
-            grid[targetRow][c] = 0;
-            if (wins) return c;
-        }
-    }
-    return -1;
+void startAiThinking() {
+    ai.thinkTimeMillis = (long) (aiMoveDelay * 1000);
+    ai.usePowerUp(game);
+    aiWorker.think(game);
+    aiThinking = true;
+    aiPondering = false;
 }
 
-int checkAndRemoveLines() {
-    java.util.Set<Integer> rowsToClear = new java.util.HashSet<>();
-    java.util.Set<Integer> colsToClear = new java.util.HashSet<>();
-    java.util.Set<Integer> diag1ToClear = new java.util.HashSet<>(); 
-    java.util.Set<Integer> diag2ToClear = new java.util.HashSet<>(); 
+void cancelAiThinking() {
+    aiWorker.cancel();
+    aiThinking = false;
+    aiPondering = false;
+}
 
-    
-    for (int r = 0; r < ROWS; r++) {
-        for (int c = 0; c <= COLS - 4; c++) {
-            if (grid[r][c] != 0 && grid[r][c] == grid[r][c+1] && grid[r][c] == grid[r][c+2] && grid[r][c] == grid[r][c+3]) rowsToClear.add(r);
-        }
-    }
-    for (int c = 0; c < COLS; c++) {
-        for (int r = 0; r <= ROWS - 4; r++) {
-            if (grid[r][c] != 0 && grid[r][c] == grid[r+1][c] && grid[r][c] == grid[r+2][c] && grid[r][c] == grid[r+3][c]) colsToClear.add(c);
-        }
-    }
-    for (int r = 0; r <= ROWS - 4; r++) {
-        for (int c = 0; c <= COLS - 4; c++) {
-            if (grid[r][c] != 0 && grid[r][c] == grid[r+1][c+1] && grid[r][c] == grid[r+2][c+2] && grid[r][c] == grid[r+3][c+3]) diag1ToClear.add(r - c);
-        }
-    }
-    for (int r = 3; r < ROWS; r++) {
-        for (int c = 0; c <= COLS - 4; c++) {
-            if (grid[r][c] != 0 && grid[r][c] == grid[r-1][c+1] && grid[r][c] == grid[r-2][c+2] && grid[r][c] == grid[r-3][c+3]) diag2ToClear.add(r + c);
-        }
+@Override
+public void linesCleared(Position position) {
+    for (long rows = position.clearedRows; rows != 0; rows &= rows - 1) {
+        int r = Long.numberOfTrailingZeros(rows);
+        float sweepY = innerY + (position.rows - 1 - r) * cellHeight;
+        activeSweeps.add(new SweepEffect(innerX, sweepY, innerW, cellHeight));
     }
-
-    
-    int linesFound = rowsToClear.size() + colsToClear.size() + diag1ToClear.size() + diag2ToClear.size();
-
-    
-    if (linesFound > 0) {
-        boolean[][] toDestroy = new boolean[ROWS][COLS];
-
-        for (int r : rowsToClear) {
-            float sweepY = innerY + (ROWS - 1 - r) * cellHeight;
-            activeSweeps.add(new SweepEffect(innerX, sweepY, innerW, cellHeight));
-            for (int i = 0; i < COLS; i++) toDestroy[r][i] = true;
-        }
-        for (int c : colsToClear) {
-            float sweepX = innerX + c * cellWidth;
-            activeSweeps.add(new SweepEffect(sweepX, innerY, cellWidth, innerH));
-            for (int i = 0; i < ROWS; i++) toDestroy[i][c] = true;
-        }
-        for (int d1 : diag1ToClear) {
-            for (int r = 0; r < ROWS; r++) {
-                int c = r - d1;
-                if (c >= 0 && c < COLS) toDestroy[r][c] = true;
-            }
-        }
-        for (int d2 : diag2ToClear) {
-            for (int r = 0; r < ROWS; r++) {
-                int c = d2 - r;
-                if (c >= 0 && c < COLS) toDestroy[r][c] = true;
-            }
-        }
-
-        for (int r = 0; r < ROWS; r++) {
-            for (int c = 0; c < COLS; c++) {
-                if (toDestroy[r][c] && grid[r][c] != 0) {
-                    createBlastEffect(r, c);
-                    grid[r][c] = 0;
-                }
-            }
-        }
+    for (long cols = position.clearedCols; cols != 0; cols &= cols - 1) {
+        float sweepX = innerX + Long.numberOfTrailingZeros(cols) * cellWidth;
+        activeSweeps.add(new SweepEffect(sweepX, innerY, cellWidth, innerH));
     }
-    return linesFound;
+    createBlastEffects(position);
 }
 
 void updateAndDrawUI() {
@@ -1615,23 +1422,23 @@ void updateAndDrawUI() {
                                 gameState == GameState.AI_WIN || 
                                 gameState == GameState.TIME_UP);
 
-    int m1 = (int) (p1TimeRemaining / 60);
-    int s1 = (int) (p1TimeRemaining % 60);
+    int m1 = (int) (game.p1TimeRemaining / 60);
+    int s1 = (int) (game.p1TimeRemaining % 60);
     timeLabel.setText(String.format("%d:%02d", m1, s1));
 
-    if (p1TimeRemaining < 10 && p1TimeRemaining > 0) {
+    if (game.p1TimeRemaining < 10 && game.p1TimeRemaining > 0) {
         float alpha = 0.5f + (float)Math.abs(Math.sin(Gdx.graphics.getFrameId() * 0.2f)) * 0.5f;
         timeLabel.setColor(1, 0, 0, alpha); 
     } else {
         timeLabel.setColor(Color.WHITE);
     }
 
-    int m2 = (int) (p2TimeRemaining / 60);
-    int s2 = (int) (p2TimeRemaining % 60);
+    int m2 = (int) (game.p2TimeRemaining / 60);
+    int s2 = (int) (game.p2TimeRemaining % 60);
     p2TimeLabel.setText(String.format("%d:%02d", m2, s2));
     p2TimeLabel.setVisible(isTwoPlayer); 
 
-    if (p2TimeRemaining < 10 && p2TimeRemaining > 0 && isTwoPlayer) {
+    if (game.p2TimeRemaining < 10 && game.p2TimeRemaining > 0 && isTwoPlayer) {
         float alpha = 0.5f + (float)Math.abs(Math.sin(Gdx.graphics.getFrameId() * 0.2f)) * 0.5f;
         p2TimeLabel.setColor(1, 0, 0, alpha);
     } else {
@@ -1639,44 +1446,44 @@ void updateAndDrawUI() {
     }
 
 if (isTwoPlayer) {
-    playerLabel.setText("" + score);
-    aiLabel.setText("" + aiScore);
+    playerLabel.setText("" + game.score);
+    aiLabel.setText("" + game.aiScore);
     aiLabel.setColor(Color.YELLOW); 
 } else {
-    playerLabel.setText("" + score);
-    aiLabel.setText("" + aiScore);
+    playerLabel.setText("" + game.score);
+    aiLabel.setText("" + game.aiScore);
     aiLabel.setColor(Color.YELLOW);
 }
 
-goalLabel.setText("" + scoreGoal);
-difficultyLabel.setText("" + currentDifficulty);
+goalLabel.setText("" + game.scoreGoal);
+difficultyLabel.setText("" + game.currentDifficulty);
 
 comboLabel.setVisible(true);           
 p2ComboLabel.setVisible(isTwoPlayer);      
-comboLabel.setText("x" + p1Combo);
+comboLabel.setText("x" + game.p1Combo);
 
 if (isTwoPlayer) {
-    p2ComboLabel.setText("x" + p2Combo);
+    p2ComboLabel.setText("x" + game.p2Combo);
 }
 
 float baseScaleX = 1.23f;
 float baseScaleY = 1.2f; 
-float p1Growth = p1Combo * 0.125f;
+float p1Growth = game.p1Combo * 0.125f;
 
 comboLabel.setFontScale(baseScaleX + p1Growth, baseScaleY + p1Growth);
 
-if (p1Combo >= 5) comboLabel.setColor(Color.RED);
-else if (p1Combo >= 3) comboLabel.setColor(Color.ORANGE);
-else if (p1Combo > 1) comboLabel.setColor(Color.GOLD);
+if (game.p1Combo >= 5) comboLabel.setColor(Color.RED);
+else if (game.p1Combo >= 3) comboLabel.setColor(Color.ORANGE);
+else if (game.p1Combo > 1) comboLabel.setColor(Color.GOLD);
 else comboLabel.setColor(Color.WHITE);
 
 if (isTwoPlayer) {
-    float p2Growth = p2Combo * 0.15f;
+    float p2Growth = game.p2Combo * 0.15f;
     p2ComboLabel.setFontScale(baseScaleX + p2Growth, baseScaleY + p2Growth);
 
-    if (p2Combo >= 5) p2ComboLabel.setColor(Color.RED);
-    else if (p2Combo >= 3) p2ComboLabel.setColor(Color.ORANGE);
-    else if (p2Combo > 1) p2ComboLabel.setColor(Color.GOLD);
+    if (game.p2Combo >= 5) p2ComboLabel.setColor(Color.RED);
+    else if (game.p2Combo >= 3) p2ComboLabel.setColor(Color.ORANGE);
+    else if (game.p2Combo > 1) p2ComboLabel.setColor(Color.GOLD);
     else p2ComboLabel.setColor(Color.WHITE);
 }
     if (exitTable != null) {
@@ -1702,6 +1509,7 @@ if (isTwoPlayer) {
 
 @Override
     public void dispose() {
+        aiWorker.shutdown();
         batch.dispose();
         shapeRenderer.dispose();
         font.dispose();
@@ -1775,100 +1583,45 @@ if (isTwoPlayer) {
         if (tutorialBg != null) tutorialBg.dispose();
     }
 
-void bubbleSortColumn(int col) {
-    for (int pass = 0; pass < ROWS; pass++) {
-        for (int r = 0; r < ROWS - 1; r++) {
-            
-            if (grid[r][col] != 0 && grid[r + 1][col] == 0) {
-                
-                int temp = grid[r][col];
-                grid[r][col] = grid[r + 1][col];
-                grid[r + 1][col] = temp;
-            }
-        }
-    }
-}
-
-void finalizeTurn(int col, int playerID) {
-    p1TimerStopped = false; 
-    p2TimerStopped = false; 
-    comboMultiplier = 0; 
-    statusLabel.setVisible(false);
-    int linesCleared;
-    
-    
-    while ((linesCleared = checkAndRemoveLines()) > 0) {
-        triggerExplosion();
-        comboMultiplier += linesCleared; 
-
-        if (playerID == 1) {
-            int previousClears = p1LinesCleared;
-            p1LinesCleared += linesCleared;
-            if ((p1LinesCleared / 2) > (previousClears / 2) && p1PowerUp == PowerUp.NONE && !isShuffling1) {
-                isShuffling1 = true;
-                shuffleTimer1 = 2.0f; 
-            }
-        } else {
-            int previousClears = p2LinesCleared;
-            p2LinesCleared += linesCleared;
-            if ((p2LinesCleared / 2) > (previousClears / 2) && p2PowerUp == PowerUp.NONE && !isShuffling2) {
-                isShuffling2 = true;
-                shuffleTimer2 = 2.0f;
-            }
-        }
-
-        float bonus = (scoreGoal < 3000) ? 8f : 5f; 
-        bonus *= linesCleared; 
-        if (playerID == 1) p1TimeRemaining += bonus;
-        else p2TimeRemaining += bonus;
-
-        int points = (100 * (int)Math.pow(2, comboMultiplier - 1));
-        if (playerID == 1) score += points;
-        else aiScore += points;
-        
-        float pitch = 0.8f + (comboMultiplier * 0.2f);
-        if (linesCleared >= 2) blast2.play(masterVolume * 0.5f, pitch, 0);
-        else blast1.play(masterVolume * 0.5f, pitch, 0);
+@Override
+public void cascadeStep(int playerID, int linesCleared, int comboMultiplier) {
+    triggerExplosion();
 
-        shakeTimer = 0.2f; 
-        shakeIntensity = 3f + (comboMultiplier * 4f); 
+    float pitch = 0.8f + (comboMultiplier * 0.2f);
+    if (linesCleared >= 2) blast2.play(masterVolume * 0.5f, pitch, 0);
+    else blast1.play(masterVolume * 0.5f, pitch, 0);
 
-        for(int c = 0; c < COLS; c++) bubbleSortColumn(c);
-    }
-
-    if (playerID == 1) p1Combo = Math.max(1, comboMultiplier);
-    else p2Combo = Math.max(1, comboMultiplier);
+    shakeTimer = 0.2f; 
+    shakeIntensity = 3f + (comboMultiplier * 4f); 
+}
 
-    if (gameState == GameState.TUTORIAL) {
-        currentPlayer = (playerID == 1) ? 2 : 1;
-        return;
+@Override
+public void turnStarted(int player) {
+    if (!isTwoPlayer && player == 2) {
+        aiNeedsToMove = true;
+        aiTimer = 0f;
     }
+}
 
-    if (score >= scoreGoal) {
+@Override
+public void gameOver(int winner, boolean timedOut) {
+    cancelAiThinking();
+    if (timedOut) {
+        gameState = GameState.TIME_UP;
+        if (winner == 2) loseSound.play(masterVolume);
+        else winSound.play(masterVolume);
+    } else if (winner == 1) {
         gameState = GameState.PLAYER_WIN;
         winSound.play(masterVolume);
-    } else if (aiScore >= scoreGoal) {
+    } else {
         gameState = GameState.AI_WIN;
         if (isTwoPlayer) winSound.play(masterVolume); 
         else loseSound.play(masterVolume);         
-    } else if (grid[0][col] != 0) {
-        gameState = (playerID == 1) ? GameState.AI_WIN : GameState.PLAYER_WIN;
-        if (gameState == GameState.PLAYER_WIN) winSound.play(masterVolume);
-        else {
-            if (isTwoPlayer) winSound.play(masterVolume); 
-            else loseSound.play(masterVolume);          
-        }
-    } else {
-        currentPlayer = (playerID == 1) ? 2 : 1;
-        if (!isTwoPlayer && currentPlayer == 2) {
-            aiNeedsToMove = true;
-            aiTimer = 0f;
-        }
     }
 }
 
 void triggerExplosion() {
-    int rand = new Random().nextInt(5);
+    int rand = game.cosmeticRandom.nextInt(5);
 
     expImage.setDrawable(
         new com.badlogic.gdx.scenes.scene2d.utils.TextureRegionDrawable(expTextures[rand])
@@ -1902,152 +1655,63 @@ void triggerExplosion() {
 }
 
 void executeMove(int col) {
-    if ((gameState != GameState.PLAYING && gameState != GameState.TUTORIAL) || currentPlayer == 0) return;
+    if ((gameState != GameState.PLAYING && gameState != GameState.TUTORIAL) || game.currentPlayer == 0) return;
 
-    int targetRow = -1;
-    for (int r = ROWS - 1; r >= 0; r--) {
-        if (grid[r][col] == 0) {
-            targetRow = r;
-            break;
-        }
-    }
+    int targetRow = game.position.dropRow(col);
 
     if (targetRow != -1) {
         float size = Math.min(cellWidth, cellHeight) * 0.99f;
         float startX = innerX + col * cellWidth + (cellWidth - size) / 1f + 2.2f;
         float startY = 600;
-        float targetY = innerY + (ROWS - 1 - targetRow) * cellHeight + (cellHeight - size) / 1f - 3f;
-
-        activeFallingPieces.add(new FallingPiece(startX, startY, targetY, currentPlayer, col, targetRow));
-        currentPlayer = 0; 
-    }
-}
+        float targetY = innerY + (game.position.rows - 1 - targetRow) * cellHeight + (cellHeight - size) / 1f - 3f;
 
-boolean checkWin(int player) {
-    int[][] directions = {
-        {0, 1},   
-        {1, 0},   
-        {1, 1},   
-        {-1, 1}   
-    };
-
-    for (int r = 0; r < ROWS; r++) {
-        for (int c = 0; c < COLS; c++) {
-
-            if (grid[r][c] != player) continue;
-
-            
-            for (int[] dir : directions) {
-
-                int count = 1;
-                int dr = dir[0];
-                int dc = dir[1];
-
-                int nr = r + dr;
-                int nc = c + dc;
-
-                while (nr >= 0 && nr < ROWS &&
-                    nc >= 0 && nc < COLS &&
-                    grid[nr][nc] == player) {
-
-                    count++;
-
-                    if (count == 4)
-                        return true;
-
-                    nr += dr;
-                    nc += dc;
-                }
-            }
-        }
+        activeFallingPieces.add(new FallingPiece(startX, startY, targetY, game.currentPlayer, col, targetRow));
+        game.currentPlayer = 0; 
     }
-
-    return false;
 }
 
-void activatePowerUp(PowerUp type, int playerID) {
+@Override
+public void powerUpUsed(int playerID, PowerUp type, int amount) {
     if (type == PowerUp.COIN) {
-        int coinValue = 1000;
-        if (currentDifficulty == Difficulty.EASY) coinValue = 250;
-        else if (currentDifficulty == Difficulty.MEDIUM) coinValue = 500;
-        
-        if (playerID == 1) score += coinValue; else aiScore += coinValue;
         popSound.play(masterVolume); 
-        statusLabel.setText((playerID == 1 || isTwoPlayer) ? "+" + coinValue + " Points!" : "AI gained points!");
-        statusLabel.setVisible(true);
+        statusLabel.setText((playerID == 1 || isTwoPlayer) ? "+" + amount + " Points!" : "AI gained points!");
     }
     else if (type == PowerUp.EIGHT) {
-        if (playerID == 1) p1TimeRemaining += 8f; else p2TimeRemaining += 8f;
         popSound.play(masterVolume); 
         statusLabel.setText("+8 Seconds!");
-        statusLabel.setVisible(true);
     } 
     else if (type == PowerUp.STAR) {
-        if (playerID == 1) p1TimerStopped = true; else p2TimerStopped = true;
         popSound.play(masterVolume); 
         statusLabel.setText("Time Frozen!");
-        statusLabel.setVisible(true);
     }
-    else if (type == PowerUp.BOMB || type == PowerUp.BULLET) {
-        
-        boolean isEmpty = true;
-        for(int r = 0; r < ROWS; r++) {
-            for(int c = 0; c < COLS; c++) {
-                if (grid[r][c] != 0) isEmpty = false;
-            }
-        }
-    if (isEmpty) {
-            
-            if (playerID == 1) p1PowerUp = type; else p2PowerUp = type; 
-            return; 
-        }
-
-        activeTargeting = type;
-        if (type == PowerUp.BOMB) {
-            statusLabel.setText("Select piece to destroy!");
-        } else {
-            bulletIsRow = random.nextBoolean(); 
-            statusLabel.setText(bulletIsRow ? "Select row to clear!" : "Select column to clear!");
-        }
-        statusLabel.setVisible(true);
+    else if (type == PowerUp.BOMB) {
+        statusLabel.setText("Select piece to destroy!");
+    } else {
+        statusLabel.setText(game.bulletIsRow ? "Select row to clear!" : "Select column to clear!");
     }
+    statusLabel.setVisible(true);
 }
 
 void executeTargeting(int col, int row) {
-    if (activeTargeting == PowerUp.BOMB) {
-        if (grid[row][col] != 0) {
-            createBlastEffect(row, col);
-            blast2.play(masterVolume);
-            grid[row][col] = 0; 
-            for(int c = 0; c < COLS; c++) bubbleSortColumn(c); 
-            finalizeTurn(col, currentPlayer); 
-            activeTargeting = PowerUp.NONE;
-            statusLabel.setVisible(false);
-        }
-    } 
-    else if (activeTargeting == PowerUp.BULLET) {
-        if (bulletIsRow) {
-            
-            activeSweeps.add(new SweepEffect(innerX, innerY + (ROWS - 1 - row) * cellHeight, innerW, cellHeight));
-            blast1.play(masterVolume);
-            for(int c = 0; c < COLS; c++) {
-                if (grid[row][c] != 0) createBlastEffect(row, c);
-                grid[row][c] = 0;
-            }
+    if (game.executeTargeting(col, row)) {
+        statusLabel.setVisible(false);
+    }
+}
+
+@Override
+public void targetFired(PowerUp type, int row, int col, Position position) {
+    if (type == PowerUp.BOMB) {
+        blast2.play(masterVolume);
+    } else {
+        if (game.bulletIsRow) {
+            activeSweeps.add(new SweepEffect(innerX, innerY + (position.rows - 1 - row) * cellHeight, innerW, cellHeight));
         } else {
-            
             activeSweeps.add(new SweepEffect(innerX + col * cellWidth, innerY, cellWidth, innerH));
-            blast1.play(masterVolume);
-            for(int r = 0; r < ROWS; r++) {
-                if (grid[r][col] != 0) createBlastEffect(r, col);
-                grid[r][col] = 0;
-            }
         }
-        for(int c = 0; c < COLS; c++) bubbleSortColumn(c);
-        finalizeTurn(col, currentPlayer);
-        activeTargeting = PowerUp.NONE;
-        statusLabel.setVisible(false);
+        blast1.play(masterVolume);
     }
+    statusLabel.setVisible(false);
+    createBlastEffects(position);
 }
 
 Texture getTextureForPowerUp(PowerUp p) {
@@ -2058,10 +1722,19 @@ Texture getTextureForPowerUp(PowerUp p) {
     return bombTex;
 }
 
+void createBlastEffects(Position position) {
+    for (int w = 0; w < position.cleared.length; w++) {
+        for (long cells = position.cleared[w]; cells != 0; cells &= cells - 1) {
+            int i = (w << 6) | Long.numberOfTrailingZeros(cells);
+            createBlastEffect(position.rowOf(i), position.colOf(i));
+        }
+    }
+}
+
 void createBlastEffect(int r, int c) {
     float size = Math.min(cellWidth, cellHeight);
     float pieceX = innerX + c * cellWidth + (cellWidth - size) / 2f;
-    float pieceY = innerY + (ROWS - 1 - r) * cellHeight + (cellHeight - size) / 2f;
+    float pieceY = innerY + (game.position.rows - 1 - r) * cellHeight + (cellHeight - size) / 2f;
     blastEffects.add(new BlastEffect(pieceX + size / 2, pieceY + size / 2, size));
     }
 }
\ No newline at end of file
@@ -0,0 +1,282 @@
+package com.fourstack.game.engine;
+
+import java.util.SplittableRandom;
+
+/**
+ * The computer opponent. It fires any power-up it holds, then searches for a column with the settings of the game's
+ * {@link Difficulty}. On HARD it may search with {@link MonteCarlo} instead, and aims bombs and bullets, or keeps them
+ * for later, by scoring every target with {@link Targeting}; otherwise it fires at random.
+ */
+public class Ai {
+    /** How HARD looks for its column. */
+    public enum Backend { ALPHA_BETA, MONTE_CARLO }
+
+    /**
+     * Points a bomb or bullet is worth kept in hand: it can still be fired later, at a better target. A shot has to
+     * beat the best drop by this much to be taken.
+     */
+    static final int HOLD_VALUE = 100;
+
+    public final Search search;
+    public final MonteCarlo monteCarlo = new MonteCarlo();
+    public final Targeting targeting;
+    public Backend backend = Backend.ALPHA_BETA;
+
+    /** Columns HARD plays without searching, in positions early in a game; null for none. */
+    public OpeningBook book;
+
+    /** Turns HARD answered from {@link #book}. */
+    public int bookHits;
+
+    /**
+     * Learned pattern values HARD evaluates with; the easier levels go without them. Null leaves
+     * {@link Search#patterns} as it is set.
+     */
+    public PatternWeights patterns;
+
+    /**
+     * Threads HARD searches on. The other levels always search on one, so what a move costs them, and every seeded
+     * game they play, is the same on any machine.
+     */
+    public int threads = 1;
+
+    /** How long a search may take, at any difficulty. */
+    public long thinkTimeMillis = 650;
+
+    /** Turns answered from {@link #ponder} without searching again. */
+    public int ponderHits;
+
+    /** What the last {@link #ponder} found: the turn it searched, the answer and how long it searched for it. */
+    private long ponderKey;
+    private int ponderColumn = -1;
+    private long ponderNanos;
+
+    public Ai() {
+        this(new TranspositionTable(Search.TABLE_MEGABYTES));
+    }
+
+    /** An AI whose search, targeting included, uses {@code table}. */
+    Ai(TranspositionTable table) {
+        search = new Search(table);
+        targeting = new Targeting(search);
+    }
+
+    /**
+     * Plays the AI's whole turn up to the drop and returns the column it wants to drop into, or -1 if the turn was
+     * already spent on a bomb or bullet (or no column is open).
+     */
+    public int move(Game game) {
+        if (usePowerUp(game)) {
+            int target = chooseTarget(game);
+            game.executeTargeting(game.position.colOf(target), game.position.rowOf(target));
+            return -1;
+        }
+        int shot = chooseShot(game);
+        if (shot != -1) {
+            game.usePowerUp(game.currentPlayer);
+            if (game.executeTargeting(game.position.colOf(shot), game.position.rowOf(shot))) return -1;
+        }
+        return chooseColumn(game);
+    }
+
+    /**
+     * Spends the power-up the AI holds, unless it is still being rolled. On HARD a bomb or bullet is kept for
+     * {@link #chooseShot} to weigh against dropping. Returns true if that armed a bomb or bullet, which the AI then
+     * has to fire at {@link #chooseTarget} instead of dropping.
+     */
+    public boolean usePowerUp(Game game) {
+        int me = game.currentPlayer;
+        PowerUp held = game.heldPowerUp(me);
+        if (held == PowerUp.NONE || game.isShuffling(me)) return false;
+        if (game.currentDifficulty == Difficulty.HARD && (held == PowerUp.BOMB || held == PowerUp.BULLET)) return false;
+        game.usePowerUp(me);
+        return game.activeTargeting != PowerUp.NONE;
+    }
+
+    /**
+     * On HARD, where to fire the bomb or bullet the AI holds instead of dropping this turn, or -1 to keep it. Every
+     * target and every drop is scored, and the shot is taken only if it beats the best drop by {@link #HOLD_VALUE},
+     * what the power-up is still worth kept in hand. A bullet's direction is only rolled once it is armed, so the AI
+     * fires one only if both its best row and its best column, each scored as the move it is, would clear that bar;
+     * the cell returned lies on both, and {@link Game#executeTargeting} reads whichever the roll asks for.
+     */
+    public int chooseShot(Game game) {
+        int me = game.currentPlayer;
+        PowerUp held = game.heldPowerUp(me);
+        Position position = game.position;
+        if (game.currentDifficulty != Difficulty.HARD || game.activeTargeting != PowerUp.NONE || game.isShuffling(me)
+                || (held != PowerUp.BOMB && held != PowerUp.BULLET) || position.isEmpty()) {
+            return -1;
+        }
+        int targets = Math.max(position.rows * position.cols, position.rows + position.cols);
+        int[] candidates = new int[position.cols + targets];
+        int count = 0;
+        for (int c = 0; c < position.cols; c++) {
+            if (position.dropRow(c) != -1) candidates[count++] = Targeting.candidate(Targeting.DROP, c);
+        }
+        int drops = count;
+        count = addTargets(position, held, true, true, candidates, count);
+        int[] values = new int[count];
+        usePatterns(game.currentDifficulty);
+        targeting.evaluate(game, candidates, count, values, thinkTimeMillis * 1_000_000L);
+
+        int bestDrop = -Search.INFINITY;
+        for (int i = 0; i < drops; i++) bestDrop = Math.max(bestDrop, values[i]);
+        if (held == PowerUp.BOMB) {
+            int best = best(candidates, values, drops, count, Targeting.BOMB);
+            return (long) values[best] > (long) bestDrop + HOLD_VALUE ? Targeting.index(candidates[best]) : -1;
+        }
+        int row = best(candidates, values, drops, count, Targeting.ROW);
+        int col = best(candidates, values, drops, count, Targeting.COLUMN);
+        if ((long) Math.min(values[row], values[col]) <= (long) bestDrop + HOLD_VALUE) return -1;
+        return position.cell(Targeting.index(candidates[row]), Targeting.index(candidates[col]));
+    }
+
+    /**
+     * Cell to fire the armed bomb or bullet at, as a {@link Position#cell} index: the best scoring target on HARD,
+     * otherwise a random one.
+     */
+    public int chooseTarget(Game game) {
+        Position position = game.position;
+        if (game.currentDifficulty == Difficulty.HARD) {
+            int[] candidates = new int[Math.max(position.rows * position.cols, position.rows + position.cols)];
+            int count = addTargets(position, game.activeTargeting, game.bulletIsRow, !game.bulletIsRow, candidates, 0);
+            int[] values = new int[count];
+            usePatterns(game.currentDifficulty);
+            targeting.evaluate(game, candidates, count, values, thinkTimeMillis * 1_000_000L);
+            int kind = game.activeTargeting == PowerUp.BOMB ? Targeting.BOMB
+                    : game.bulletIsRow ? Targeting.ROW : Targeting.COLUMN;
+            int index = Targeting.index(candidates[best(candidates, values, 0, count, kind)]);
+            if (kind == Targeting.BOMB) return index;
+            return kind == Targeting.ROW ? position.cell(index, 0) : position.cell(0, index);
+        }
+        SplittableRandom random = game.aiRandom;
+        if (game.activeTargeting == PowerUp.BOMB) return position.nthPiece(random.nextInt(position.pieceCount()));
+        if (game.bulletIsRow) return position.cell(random.nextInt(position.rows), 0);
+        return position.cell(0, random.nextInt(position.cols));
+    }
+
+    /** Appends the targets of {@code type}: every piece for a bomb, every row and/or column for a bullet. */
+    private static int addTargets(Position position, PowerUp type, boolean rows, boolean columns, int[] candidates,
+            int count) {
+        if (type == PowerUp.BOMB) {
+            for (int n = 0, pieces = position.pieceCount(); n < pieces; n++) {
+                candidates[count++] = Targeting.candidate(Targeting.BOMB, position.nthPiece(n));
+            }
+            return count;
+        }
+        for (int r = 0; rows && r < position.rows; r++) candidates[count++] = Targeting.candidate(Targeting.ROW, r);
+        for (int c = 0; columns && c < position.cols; c++) {
+            candidates[count++] = Targeting.candidate(Targeting.COLUMN, c);
+        }
+        return count;
+    }
+
+    /** Index of the best scoring candidate of {@code kind} in [{@code from}, {@code to}), the first of equals. */
+    private static int best(int[] candidates, int[] values, int from, int to, int kind) {
+        int best = -1;
+        for (int i = from; i < to; i++) {
+            if (Targeting.kind(candidates[i]) == kind && (best == -1 || values[i] > values[best])) best = i;
+        }
+        return best;
+    }
+
+    /** Column for the player to move to drop into, or -1 if none is open. */
+    public int chooseColumn(Game game) {
+        long budget = thinkTimeMillis * 1_000_000L;
+        boolean ponderHit = game.currentDifficulty == Difficulty.HARD && ponderColumn != -1
+                && ponderKey == game.stateKey();
+        int pondered = ponderColumn;
+        ponderColumn = -1;
+        if (game.currentDifficulty == Difficulty.HARD && book != null) {
+            int col = book.column(game);
+            if (col != -1) {
+                bookHits++;
+                return col;
+            }
+        }
+        if (ponderHit) {
+            // Pondering already spent the budget on this very turn; otherwise search the rest of it, starting from
+            // what pondering left in the table or tree.
+            budget -= ponderNanos;
+            if (budget <= 0) {
+                ponderHits++;
+                return pondered;
+            }
+        }
+        return searchColumn(game, budget);
+    }
+
+    /**
+     * Thinks through the opponent's turn, until {@link #stop()}: guesses their drop with a short search, then searches
+     * the AI's answer to it with no time limit. If the guess comes true, {@link #chooseColumn} answers at once when
+     * pondering ran at least {@link #thinkTimeMillis}, and otherwise searches only the rest of it. Whatever the
+     * opponent plays, the search starts from the transposition table pondering filled.
+     * <p>
+     * {@code game} is played on, so pass a {@link Game#snapshot()}. Only HARD ponders.
+     */
+    public void ponder(Game game) {
+        ponderColumn = -1;
+        if (game.currentDifficulty != Difficulty.HARD || game.isOver() || game.activeTargeting != PowerUp.NONE) return;
+        int guess = searchColumn(game, thinkTimeMillis * 1_000_000L / 4);
+        if (guess == -1 || !game.drop(guess) || game.isOver()) return;
+        // The AI spends its power-up before it asks for a column, so the turn to match is the one after that.
+        if (usePowerUp(game)) return;
+        // The book answers that turn at once anyway.
+        if (book != null && book.column(game) != -1) return;
+
+        long start = System.nanoTime();
+        int col = searchColumn(game, Long.MAX_VALUE / 4);
+        ponderNanos = System.nanoTime() - start;
+        ponderKey = game.stateKey();
+        ponderColumn = col;
+    }
+
+    /**
+     * Column the search picks for the player to move within {@code budgetNanos} and the limits of the game's
+     * difficulty, or -1 if none is open.
+     */
+    private int searchColumn(Game game, long budgetNanos) {
+        Difficulty difficulty = game.currentDifficulty;
+        if (difficulty == Difficulty.HARD && backend == Backend.MONTE_CARLO) return monteCarlo.think(game, budgetNanos);
+        usePatterns(difficulty);
+        search.threads = difficulty == Difficulty.HARD ? threads : 1;
+        search.depthLimit = difficulty.depth;
+        search.nodeLimit = difficulty.nodes;
+        search.quiescence = difficulty.quiescence;
+        search.temperature = difficulty.temperature;
+        // A fresh seed every move, so a weak level's blunders are not the same ones each game.
+        search.noiseSeed = difficulty.temperature == 0 ? 0 : game.aiRandom.nextLong();
+        int me = game.currentPlayer;
+        int myScore = (me == 1) ? game.score : game.aiScore;
+        int opponentScore = (me == 1) ? game.aiScore : game.score;
+        return search.think(game.position, me, myScore, opponentScore, game.scoreGoal, budgetNanos);
+    }
+
+    /** Gives the search {@link #patterns} on HARD and none below it, if the AI has any. */
+    private void usePatterns(Difficulty difficulty) {
+        if (patterns != null) search.patterns = difficulty == Difficulty.HARD ? patterns : null;
+    }
+
+    /**
+     * Makes a HARD search running on another thread return early. Searches keep stopping straight away until
+     * {@link #resume()}.
+     */
+    public void stop() {
+        search.stop();
+        monteCarlo.stop();
+        targeting.stop();
+    }
+
+    public void resume() {
+        search.resume();
+        monteCarlo.resume();
+        targeting.resume();
+    }
+
+    /** Ends the threads the HARD searches keep; a later search starts new ones. */
+    public void shutdown() {
+        search.shutdown();
+        targeting.shutdown();
+    }
+}
@@ -0,0 +1,110 @@
+package com.fourstack.game.engine;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs an {@link Ai} on a background thread so the render thread never waits for a search. Each request thinks about
+ * a {@link Game#snapshot()}, and the answer comes back through a queue the caller polls once per frame. Cancelling
+ * stops the search in progress and drops any answer still on its way. Between requests the worker can ponder on the
+ * opponent's turn; the next request stops that and picks up what it found.
+ */
+public final class AiWorker {
+
+    /**
+     * The column to drop into, or the cell to fire at when a bomb or bullet was armed. If {@code arm} is set the AI
+     * chose to spend the bomb or bullet it holds: arm it with {@link Game#usePowerUp} first, then fire.
+     */
+    public static final class Decision {
+        public final boolean arm;
+        public final boolean target;
+        public final int row;
+        public final int col;
+        final int request;
+
+        Decision(int request, boolean arm, boolean target, int row, int col) {
+            this.request = request;
+            this.arm = arm;
+            this.target = target;
+            this.row = row;
+            this.col = col;
+        }
+    }
+
+    private final Ai ai;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fourstack-ai");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentLinkedQueue<Decision> decisions = new ConcurrentLinkedQueue<>();
+    private volatile int request;
+    private Future<?> pending;
+
+    public AiWorker(Ai ai) {
+        this.ai = ai;
+    }
+
+    /** Starts thinking about the move of the player to move in {@code game}, cancelling any earlier request. */
+    public void think(Game game) {
+        cancel();
+        Game snapshot = game.snapshot();
+        int id = request;
+        pending = executor.submit(() -> {
+            // Clear the stop flag before checking for a newer request, so a cancel() between the two still lands.
+            ai.resume();
+            if (id != request) return;
+            Decision decision;
+            Position position = snapshot.position;
+            int shot;
+            if (snapshot.activeTargeting != PowerUp.NONE) {
+                int cell = ai.chooseTarget(snapshot);
+                decision = new Decision(id, false, true, position.rowOf(cell), position.colOf(cell));
+            } else if ((shot = ai.chooseShot(snapshot)) != -1) {
+                decision = new Decision(id, true, true, position.rowOf(shot), position.colOf(shot));
+            } else {
+                decision = new Decision(id, false, false, -1, ai.chooseColumn(snapshot));
+            }
+            if (id == request) decisions.offer(decision);
+        });
+    }
+
+    /**
+     * Starts the AI {@link Ai#ponder pondering} through the turn of the player to move in {@code game}. It keeps going
+     * until the next {@link #think} or {@link #cancel}, and posts no decision.
+     */
+    public void ponder(Game game) {
+        cancel();
+        Game snapshot = game.snapshot();
+        int id = request;
+        pending = executor.submit(() -> {
+            ai.resume();
+            if (id != request) return;
+            ai.ponder(snapshot);
+        });
+    }
+
+    /** The answer to the current request if it is ready, otherwise null. */
+    public Decision poll() {
+        for (Decision d; (d = decisions.poll()) != null; ) {
+            if (d.request == request) return d;
+        }
+        return null;
+    }
+
+    public void cancel() {
+        request++;
+        ai.stop();
+        if (pending != null) pending.cancel(false);
+        pending = null;
+        decisions.clear();
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+        ai.shutdown();
+    }
+}
@@ -0,0 +1,98 @@
+package com.fourstack.game.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes an {@link OpeningBook}: every position reachable in the first few drops from an empty board is searched to a
+ * fixed depth with a thread per processor, and the column found is stored. Positions that are mirror images of one
+ * already searched are skipped, since the book answers both from one record.
+ * <p>
+ * Arguments: output file, then optionally plies from the empty board (default 4), search depth (default 12), rows,
+ * columns and line length (default 6, 7 and 4) and score goal (default {@value #HARD_SCORE_GOAL}). The book only
+ * answers games to the goal it was made for.
+ */
+public final class BookGenerator {
+    /** Score goal of a HARD game, the only level that plays from the book. */
+    static final int HARD_SCORE_GOAL = 5000;
+
+    private final Search search = new Search();
+    private final Set<Long> seen = new HashSet<>();
+    private final int plies;
+    private final int scoreGoal;
+    private long[] keys = new long[1024];
+    private int[] values = new int[1024];
+    private int[] columns = new int[1024];
+    private int count;
+    private long started;
+
+    private BookGenerator(int plies, int depth, int scoreGoal) {
+        this.plies = plies;
+        this.scoreGoal = scoreGoal;
+        search.depthLimit = depth;
+        search.threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: BookGenerator <file> [plies] [depth] [rows] [cols] [line length] [score goal]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 6;
+        int cols = args.length > 4 ? Integer.parseInt(args[4]) : 7;
+        int lineLength = args.length > 5 ? Integer.parseInt(args[5]) : 4;
+        int scoreGoal = args.length > 6 ? Integer.parseInt(args[6]) : HARD_SCORE_GOAL;
+
+        BookGenerator generator = new BookGenerator(plies, depth, scoreGoal);
+        generator.started = System.nanoTime();
+        generator.visit(new Position(rows, cols, lineLength), 1, 0, 0, 0);
+        generator.search.shutdown();
+        OpeningBook.write(file, rows, cols, lineLength, scoreGoal, generator.keys, generator.values,
+                generator.columns, generator.count);
+        System.out.printf("%d positions to depth %d in %.1f s, written to %s%n", generator.count, depth,
+                (System.nanoTime() - generator.started) / 1e9, file);
+    }
+
+    /** Searches the position unless its mirror is in already, then every drop from it up to {@link #plies}. */
+    private void visit(Position position, int player, int myScore, int opponentScore, int ply) {
+        long hash = position.hash(), mirror = position.mirrorHash();
+        long key = OpeningBook.key(Math.min(hash, mirror), player, myScore, opponentScore);
+        if (!seen.add(key)) return;
+
+        int col = search.think(position, player, myScore, opponentScore, scoreGoal, Long.MAX_VALUE / 4);
+        if (col == -1) return;
+        add(key, search.value, mirror < hash ? position.cols - 1 - col : col);
+        if (count % 100 == 0) {
+            System.out.printf("%d positions, %.1f s%n", count, (System.nanoTime() - started) / 1e9);
+        }
+        if (ply == plies) return;
+
+        for (int c = 0; c < position.cols; c++) {
+            if (position.dropRow(c) == -1) continue;
+            int lines = position.make(c, player);
+            int mine = myScore + (lines > 0 ? position.cascade.points() : 0);
+            // A finished game has nothing left to look up.
+            if (mine < scoreGoal && position.get(0, c) == 0) visit(position, 3 - player, opponentScore, mine, ply + 1);
+            position.unmake();
+        }
+    }
+
+    private void add(long key, int value, int col) {
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+            columns = Arrays.copyOf(columns, count * 2);
+        }
+        keys[count] = key;
+        values[count] = value;
+        columns[count] = col;
+        count++;
+    }
+}
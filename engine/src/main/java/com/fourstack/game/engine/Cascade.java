@@ -0,0 +1,72 @@
+package com.fourstack.game.engine;
+
+import java.util.Arrays;
+
+/**
+ * What one turn's line clears did: lines and destroyed pieces for every round of the cascade, and the combo it ended
+ * on. A single instance is meant to be reused from turn to turn.
+ */
+public final class Cascade {
+    private int[] lines = new int[8];
+    private int[] cells = new int[8];
+    private int rounds;
+    private int combo;
+    private int totalCells;
+
+    public void clear() {
+        rounds = 0;
+        combo = 0;
+        totalCells = 0;
+    }
+
+    void addRound(int linesCleared, int cellsCleared) {
+        if (rounds == lines.length) {
+            lines = Arrays.copyOf(lines, rounds * 2);
+            cells = Arrays.copyOf(cells, rounds * 2);
+        }
+        lines[rounds] = linesCleared;
+        cells[rounds] = cellsCleared;
+        rounds++;
+        combo += linesCleared;
+        totalCells += cellsCleared;
+    }
+
+    public int rounds() {
+        return rounds;
+    }
+
+    public int lines(int round) {
+        return lines[round];
+    }
+
+    public int cells(int round) {
+        return cells[round];
+    }
+
+    /** Lines cleared over the whole cascade, which is the turn's combo multiplier. */
+    public int combo() {
+        return combo;
+    }
+
+    public int totalCells() {
+        return totalCells;
+    }
+
+    /**
+     * Points for a round that brought the turn's combo up to {@code combo}: 100, doubling with each step of combo. A
+     * combo past 25 would overflow an int, so the points stop at {@link Integer#MAX_VALUE} instead.
+     */
+    public static int roundPoints(int combo) {
+        return (int) Math.min(Integer.MAX_VALUE, 100L << Math.min(combo - 1, 32));
+    }
+
+    /** Points for the whole cascade, as {@link Game} awards them round by round, at most {@link Integer#MAX_VALUE}. */
+    public int points() {
+        long points = 0;
+        for (int i = 0, c = 0; i < rounds; i++) {
+            c += lines[i];
+            points += roundPoints(c);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, points);
+    }
+}
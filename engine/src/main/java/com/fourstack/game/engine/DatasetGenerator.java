@@ -0,0 +1,155 @@
+package com.fourstack.game.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Dumps self-play positions for offline analysis and training: games are played out by the real rules on a fixed pool
+ * with a thread per processor, every turn's position is packed as it comes up, and once a game is over its records
+ * get the winner and go to a {@link DatasetWriter} together.
+ * <p>
+ * Arguments: options, then the output directory. Options: {@code --games=} (default 10000), {@code --threads=}
+ * (default: available processors), {@code --seed=} (default 1), {@code --difficulty=} the players search at (default
+ * MEDIUM), {@code --patterns=} weights file they evaluate with (default none), {@code --compress} to gzip the chunks,
+ * {@code --chunk=} records per chunk file (default 1048576), {@code --goal=} (default 3000), {@code --board=} rows x
+ * cols x line length (default 6x7x4) and {@code --seconds=} per move (default 0.5).
+ */
+public final class DatasetGenerator {
+    /** Records a writer block holds. */
+    static final int BLOCK_RECORDS = 4096;
+
+    private final int rows;
+    private final int cols;
+    private final int lineLength;
+    private final int scoreGoal;
+    private final float secondsPerMove;
+    private final Difficulty difficulty;
+    private final DatasetWriter writer;
+    private final ThreadLocal<Ai> ais;
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    DatasetGenerator(DatasetWriter writer, int rows, int cols, int lineLength, int scoreGoal, float secondsPerMove,
+            Difficulty difficulty, PatternWeights patterns) {
+        this.writer = writer;
+        this.rows = rows;
+        this.cols = cols;
+        this.lineLength = lineLength;
+        this.scoreGoal = scoreGoal;
+        this.secondsPerMove = secondsPerMove;
+        this.difficulty = difficulty;
+        ais = ThreadLocal.withInitial(() -> {
+            Ai ai = new Ai();
+            ai.search.patterns = patterns;
+            return ai;
+        });
+        // Room for a record per turn of the longest game.
+        int bytes = (Tournament.MAX_TURNS + 1) * DatasetWriter.recordBytes(rows, cols);
+        buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(bytes));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int games = 10000, threads = Runtime.getRuntime().availableProcessors(), scoreGoal = 3000;
+        int rows = 6, cols = 7, lineLength = Position.DEFAULT_LINE_LENGTH;
+        long seed = 1, chunk = 1 << 20;
+        float seconds = 0.5f;
+        boolean compress = false;
+        Difficulty difficulty = Difficulty.MEDIUM;
+        PatternWeights patterns = null;
+        Path directory = null;
+        for (String arg : args) {
+            if (arg.startsWith("--games=")) games = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(arg.substring(7));
+            else if (arg.startsWith("--difficulty=")) difficulty = Difficulty.valueOf(arg.substring(13));
+            else if (arg.startsWith("--patterns=")) patterns = PatternWeights.read(Paths.get(arg.substring(11)));
+            else if (arg.equals("--compress")) compress = true;
+            else if (arg.startsWith("--chunk=")) chunk = Long.parseLong(arg.substring(8));
+            else if (arg.startsWith("--goal=")) scoreGoal = Integer.parseInt(arg.substring(7));
+            else if (arg.startsWith("--seconds=")) seconds = Float.parseFloat(arg.substring(10));
+            else if (arg.startsWith("--board=")) {
+                String[] size = arg.substring(8).split("x");
+                rows = Integer.parseInt(size[0]);
+                cols = Integer.parseInt(size[1]);
+                if (size.length > 2) lineLength = Integer.parseInt(size[2]);
+            } else {
+                directory = Paths.get(arg);
+            }
+        }
+        if (directory == null) {
+            System.err.println("Usage: DatasetGenerator [--games=N] [--threads=N] [--seed=N] [--difficulty=D]"
+                    + " [--patterns=FILE] [--compress] [--chunk=N] [--goal=N] [--board=RxCxL] [--seconds=F]"
+                    + " <directory>");
+            System.exit(2);
+        }
+        try (DatasetWriter writer = new DatasetWriter(directory, rows, cols, lineLength, compress, chunk,
+                BLOCK_RECORDS)) {
+            DatasetGenerator generator = new DatasetGenerator(writer, rows, cols, lineLength, scoreGoal, seconds,
+                    difficulty, patterns);
+            generator.run(games, threads, seed);
+        }
+        System.out.println("Positions written to " + directory);
+    }
+
+    /** Plays {@code games} games and writes their positions, printing progress now and then. */
+    void run(int games, int threads, long seed) throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "fourstack-dataset-games");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Integer> played = new ExecutorCompletionService<>(pool);
+        for (int g = 0; g < games; g++) {
+            long gameSeed = seed + g;
+            played.submit(() -> play(gameSeed));
+        }
+
+        long start = System.nanoTime(), positions = 0;
+        for (int done = 1; done <= games; done++) {
+            positions += played.take().get();
+            if (done % 100 == 0 || done == games) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%d/%d games, %d positions, %.0f positions/s%n", done, games, positions,
+                        positions / seconds);
+            }
+        }
+        pool.shutdownNow();
+    }
+
+    /** Plays one game, writes a record for each of its turns and returns how many. */
+    int play(long seed) throws IOException {
+        Ai ai = ais.get();
+        ByteBuffer records = buffers.get();
+        records.clear();
+        Game game = new Game(rows, cols, lineLength);
+        game.isTwoPlayer = true;
+        game.scoreGoal = scoreGoal;
+        game.currentDifficulty = difficulty;
+        game.start(seed);
+        for (int turn = 0; turn < Tournament.MAX_TURNS && !game.isOver(); turn++) {
+            int mover = game.currentPlayer, at = records.position();
+            DatasetWriter.pack(game, records);
+            long before = game.hash();
+            int col = ai.move(game);
+            // A power-up spent on the way changes the state the search saw, so only plain drops keep its result.
+            if (col != -1 && game.hash() == before) DatasetWriter.setSearch(records, at, ai.search.value, col);
+            if (col != -1) game.drop(col);
+            // A turn that neither dropped nor fired would repeat forever; call it a draw.
+            else if (game.currentPlayer == mover && !game.isOver()) break;
+            game.tick(secondsPerMove);
+        }
+        int recordBytes = DatasetWriter.recordBytes(rows, cols), count = records.position() / recordBytes;
+        for (int at = 0; at < records.position(); at += recordBytes) {
+            DatasetWriter.setWinner(records, at, game.winner);
+        }
+        records.flip();
+        writer.write(records);
+        return count;
+    }
+}
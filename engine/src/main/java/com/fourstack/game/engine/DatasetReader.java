@@ -0,0 +1,189 @@
+package com.fourstack.game.engine;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the records a {@link DatasetWriter} wrote, one chunk after another, as a cursor: {@link #next()} moves to the
+ * next record and the getters read its fields straight out of the chunk, so going through millions of records
+ * allocates nothing per record. Plain chunks are memory-mapped; compressed ones are inflated into one buffer that is
+ * reused from chunk to chunk.
+ */
+public final class DatasetReader implements Closeable {
+    private static final PowerUp[] POWER_UPS = PowerUp.values();
+
+    public final int rows;
+    public final int cols;
+    public final int lineLength;
+
+    private final List<Path> files;
+    private final int recordBytes;
+    private int file;
+    private ByteBuffer buffer;
+    private ByteBuffer inflated;
+    private int at;
+    private int end;
+
+    private DatasetReader(List<Path> files, int rows, int cols, int lineLength) {
+        this.files = files;
+        this.rows = rows;
+        this.cols = cols;
+        this.lineLength = lineLength;
+        recordBytes = DatasetWriter.recordBytes(rows, cols);
+    }
+
+    /** A reader of every chunk in {@code directory}, in the order they were written. */
+    public static DatasetReader open(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "positions-*.fsd{,.gz}")) {
+            for (Path path : stream) files.add(path);
+        }
+        if (files.isEmpty()) throw new IOException("No positions in " + directory);
+        Collections.sort(files);
+        ByteBuffer header = ByteBuffer.allocate(DatasetWriter.HEADER);
+        try (InputStream in = input(files.get(0))) {
+            readFully(in, header, files.get(0));
+        }
+        DatasetReader reader = new DatasetReader(files, header.getInt(8), header.getInt(12), header.getInt(16));
+        reader.file = -1;
+        return reader;
+    }
+
+    /** Moves to the next record, opening the next chunk as needed; false once every record has been read. */
+    public boolean next() throws IOException {
+        at += recordBytes;
+        while (buffer == null || at + recordBytes > end) {
+            if (++file >= files.size()) {
+                file = files.size();
+                buffer = null;
+                return false;
+            }
+            load(files.get(file));
+            at = DatasetWriter.HEADER;
+        }
+        return true;
+    }
+
+    private void load(Path path) throws IOException {
+        if (path.toString().endsWith(".gz")) {
+            if (inflated == null) inflated = ByteBuffer.allocate(1 << 20);
+            inflated.clear();
+            try (InputStream in = input(path)) {
+                while (true) {
+                    if (!inflated.hasRemaining()) {
+                        ByteBuffer grown = ByteBuffer.allocate(inflated.capacity() * 2);
+                        inflated.flip();
+                        inflated = grown.put(inflated);
+                    }
+                    int n = in.read(inflated.array(), inflated.position(), inflated.remaining());
+                    if (n == -1) break;
+                    inflated.position(inflated.position() + n);
+                }
+            }
+            inflated.flip();
+            buffer = inflated;
+        } else {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        if (buffer.limit() < DatasetWriter.HEADER || buffer.getInt(0) != DatasetWriter.MAGIC) {
+            throw new IOException("Not a positions file: " + path);
+        }
+        if (buffer.getInt(4) != DatasetWriter.VERSION) {
+            throw new IOException("Positions version " + buffer.getInt(4) + " is not " + DatasetWriter.VERSION + ": "
+                    + path);
+        }
+        if (buffer.getInt(8) != rows || buffer.getInt(12) != cols || buffer.getInt(16) != lineLength) {
+            throw new IOException("Positions for another board: " + path);
+        }
+        if ((buffer.limit() - DatasetWriter.HEADER) % recordBytes != 0) {
+            throw new IOException("Positions file is truncated: " + path);
+        }
+        end = buffer.limit();
+    }
+
+    private static InputStream input(Path path) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+        return path.toString().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    private static void readFully(InputStream in, ByteBuffer out, Path path) throws IOException {
+        while (out.hasRemaining()) {
+            int n = in.read(out.array(), out.position(), out.remaining());
+            if (n == -1) throw new IOException("Positions file is truncated: " + path);
+            out.position(out.position() + n);
+        }
+    }
+
+    /** Player to move in the current record. */
+    public int player() {
+        return buffer.get(at + DatasetWriter.PLAYER);
+    }
+
+    /** Winner of the game the current record comes from, or 0 for a draw or a game cut short. */
+    public int winner() {
+        return buffer.get(at + DatasetWriter.WINNER);
+    }
+
+    public PowerUp powerUp(int player) {
+        return POWER_UPS[buffer.get(at + DatasetWriter.POWER_UPS + player - 1)];
+    }
+
+    public int score(int player) {
+        return buffer.getInt(at + DatasetWriter.SCORES + (player - 1) * 4);
+    }
+
+    /** Seconds {@code player} had left on the clock. */
+    public float timeRemaining(int player) {
+        return buffer.getFloat(at + DatasetWriter.CLOCKS + (player - 1) * 4);
+    }
+
+    /** The search's value for the player to move, 0 if {@link #column()} is -1. */
+    public int value() {
+        return buffer.getInt(at + DatasetWriter.VALUE);
+    }
+
+    /** Column the search chose, or -1 if the turn was not a searched drop. */
+    public int column() {
+        return buffer.getShort(at + DatasetWriter.COLUMN);
+    }
+
+    /** The piece at ({@code row}, {@code col}): 0 for none, else its player. */
+    public int get(int row, int col) {
+        int cell = col * rows + rows - 1 - row;
+        return buffer.get(at + DatasetWriter.GRID + (cell >>> 2)) >>> ((cell & 3) * 2) & 3;
+    }
+
+    /** Sets up {@code position}, which must be for this board, with the current record's pieces. */
+    public void copyTo(Position position) {
+        position.clear();
+        for (int c = 0; c < cols; c++) {
+            for (int row = rows - 1; row >= 0; row--) {
+                int player = get(row, c);
+                if (player == 0) break;
+                position.drop(c, player);
+            }
+        }
+    }
+
+    /** Lets go of the current chunk; the mapping itself goes once the buffer is collected. */
+    @Override
+    public void close() {
+        buffer = null;
+        inflated = null;
+        file = files.size();
+    }
+}
@@ -0,0 +1,277 @@
+package com.fourstack.game.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams positions to disk as fixed-width records, for {@link DatasetReader}. Records are packed into blocks that a
+ * writer thread of its own drains to disk, so the threads producing them only ever copy bytes; they wait only when
+ * every block is full, that is when the disk has fallen a whole buffer behind.
+ * <p>
+ * The records go into a directory, split into chunk files of at most {@code chunkRecords} records each, named
+ * {@code positions-00000.fsd} and up, or {@code .fsd.gz} compressed with gzip. A chunk is a header of five ints
+ * (magic, version, rows, cols, line length) followed by the records. A record is:
+ * <ul>
+ * <li>a byte each for the player to move, the winner (0 for a draw or a game cut short) and the power-up each player
+ * holds, as a {@link PowerUp} ordinal;</li>
+ * <li>an int each for player 1's and player 2's score, and a float each for their seconds left on the clock;</li>
+ * <li>the search's value for the player to move and its column, an int and a short, or 0 and -1 if the turn was not a
+ * searched drop;</li>
+ * <li>the grid, 2 bits per cell (0 empty, 1 or 2 the player), four cells to a byte from the low bits, column by column
+ * from the left and each column from the floor up.</li>
+ * </ul>
+ * Everything is big-endian.
+ */
+public final class DatasetWriter implements Closeable {
+    static final int MAGIC = 0x4653_4453;
+    static final int VERSION = 1;
+    static final int HEADER = 20;
+
+    static final int PLAYER = 0;
+    static final int WINNER = 1;
+    static final int POWER_UPS = 2;
+    static final int SCORES = 4;
+    static final int CLOCKS = 12;
+    static final int VALUE = 20;
+    static final int COLUMN = 24;
+    static final int GRID = 26;
+
+    /** Blocks of records in flight, counting the one being filled. */
+    static final int BLOCKS = 8;
+
+    /** How often a thread waiting on the writer thread checks that it is still alive. */
+    private static final long WAIT_MILLIS = 100;
+
+    private final Path directory;
+    private final boolean compress;
+    private final int rows;
+    private final int cols;
+    private final int lineLength;
+    private final int recordBytes;
+    private final long chunkRecords;
+
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BLOCKS);
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BLOCKS);
+    private final Thread thread;
+    private ByteBuffer block;
+    private volatile Exception failure;
+    private boolean closed;
+
+    private WritableByteChannel chunk;
+    private int chunks;
+    private long inChunk;
+
+    /**
+     * A writer of {@code rows} x {@code cols} positions into {@code directory}, which is created if missing, in blocks
+     * of {@code blockRecords} records.
+     */
+    public DatasetWriter(Path directory, int rows, int cols, int lineLength, boolean compress, long chunkRecords,
+            int blockRecords) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.compress = compress;
+        this.rows = rows;
+        this.cols = cols;
+        this.lineLength = lineLength;
+        this.chunkRecords = chunkRecords;
+        recordBytes = recordBytes(rows, cols);
+        for (int i = 0; i < BLOCKS; i++) free.add(ByteBuffer.allocate(blockRecords * recordBytes));
+        block = free.remove();
+        thread = new Thread(this::drain, "fourstack-dataset");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Bytes in a record for a {@code rows} x {@code cols} board. */
+    public static int recordBytes(int rows, int cols) {
+        return GRID + (rows * cols * 2 + 7) / 8;
+    }
+
+    /**
+     * Packs the position of {@code game} into {@code out} at its position, which moves past the record, with no
+     * winner and no search result yet; those can be filled in through {@link #setWinner} and {@link #setSearch}.
+     */
+    public static void pack(Game game, ByteBuffer out) {
+        int at = out.position();
+        out.put((byte) game.currentPlayer);
+        out.put((byte) 0);
+        out.put((byte) game.heldPowerUp(1).ordinal());
+        out.put((byte) game.heldPowerUp(2).ordinal());
+        out.putInt(game.score);
+        out.putInt(game.aiScore);
+        out.putFloat(game.p1TimeRemaining);
+        out.putFloat(game.p2TimeRemaining);
+        out.putInt(0);
+        out.putShort((short) -1);
+        Position position = game.position;
+        int bits = 0, filled = 0;
+        for (int c = 0; c < position.cols; c++) {
+            long p1 = position.column(1, c), p2 = position.column(2, c);
+            for (int h = 0; h < position.rows; h++) {
+                bits |= (int) ((p1 >>> h & 1) | (p2 >>> h & 1) << 1) << filled;
+                filled += 2;
+                if (filled == 8) {
+                    out.put((byte) bits);
+                    bits = 0;
+                    filled = 0;
+                }
+            }
+        }
+        if (filled != 0) out.put((byte) bits);
+        out.position(at + recordBytes(position.rows, position.cols));
+    }
+
+    /** Sets the winner of the record at {@code at} in {@code records}. */
+    public static void setWinner(ByteBuffer records, int at, int winner) {
+        records.put(at + WINNER, (byte) winner);
+    }
+
+    /** Sets the search's value and column for the record at {@code at} in {@code records}. */
+    public static void setSearch(ByteBuffer records, int at, int value, int column) {
+        records.putInt(at + VALUE, value);
+        records.putShort(at + COLUMN, (short) column);
+    }
+
+    /**
+     * Copies the whole records between the position and the limit of {@code records}, packed by {@link #pack} for
+     * this writer's board, into the stream. Safe to call from several threads; a game's records stay together.
+     */
+    public synchronized void write(ByteBuffer records) throws IOException {
+        if (closed) throw new IOException("Dataset writer is closed");
+        checkFailure();
+        if (records.remaining() % recordBytes != 0) {
+            throw new IllegalArgumentException(records.remaining() + " bytes are not whole records of " + recordBytes);
+        }
+        while (records.hasRemaining()) {
+            if (!block.hasRemaining()) hand();
+            int n = Math.min(records.remaining(), block.remaining());
+            ByteBuffer slice = records.duplicate();
+            slice.limit(slice.position() + n);
+            block.put(slice);
+            records.position(records.position() + n);
+        }
+    }
+
+    /** Writes out everything written so far, then stops the writer thread and closes the last chunk. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            hand();
+        } finally {
+            // An empty block tells the writer thread to finish.
+            put(ByteBuffer.allocate(0));
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while closing the dataset", e);
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Gives the current block to the writer thread and takes a free one, waiting if the disk is behind. Fails instead
+     * of waiting on once writing has failed or the writer thread is gone.
+     */
+    private void hand() throws IOException {
+        block.flip();
+        if (block.hasRemaining()) {
+            put(block);
+            try {
+                ByteBuffer next;
+                while ((next = free.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                    checkFailure();
+                    checkAlive();
+                }
+                block = next;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the dataset writer", e);
+            }
+        }
+        block.clear();
+    }
+
+    /** Queues {@code records} for the writer thread, failing if it is gone. */
+    private void put(ByteBuffer records) throws IOException {
+        try {
+            while (!full.offer(records, WAIT_MILLIS, TimeUnit.MILLISECONDS)) checkAlive();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the dataset writer", e);
+        }
+    }
+
+    private void checkAlive() throws IOException {
+        if (!thread.isAlive()) throw new IOException("Dataset writer thread stopped", failure);
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) throw new IOException("Dataset writing failed", failure);
+    }
+
+    /**
+     * The writer thread: writes full blocks to the chunk files in order and hands them back empty. After a failure,
+     * checked or not, it keeps handing blocks back unwritten, so the threads producing them never wait on it for good.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                ByteBuffer records = full.take();
+                if (!records.hasRemaining()) break;
+                if (failure == null) {
+                    try {
+                        writeRecords(records);
+                    } catch (IOException | RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                records.clear();
+                free.put(records);
+            }
+            if (chunk != null) chunk.close();
+        } catch (IOException | RuntimeException e) {
+            if (failure == null) failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeRecords(ByteBuffer records) throws IOException {
+        while (records.hasRemaining()) {
+            if (chunk == null || inChunk == chunkRecords) nextChunk();
+            int n = (int) Math.min(records.remaining() / recordBytes, chunkRecords - inChunk);
+            ByteBuffer slice = records.duplicate();
+            slice.limit(slice.position() + n * recordBytes);
+            while (slice.hasRemaining()) chunk.write(slice);
+            records.position(records.position() + n * recordBytes);
+            inChunk += n;
+        }
+    }
+
+    private void nextChunk() throws IOException {
+        if (chunk != null) chunk.close();
+        Path file = directory.resolve(String.format("positions-%05d.fsd%s", chunks++, compress ? ".gz" : ""));
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        if (compress) out = new GZIPOutputStream(out, 1 << 16);
+        chunk = Channels.newChannel(out);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols).putInt(lineLength).flip();
+        while (header.hasRemaining()) chunk.write(header);
+        inChunk = 0;
+    }
+}
@@ -0,0 +1,32 @@
+package com.fourstack.game.engine;
+
+/**
+ * How strong the computer opponent plays, as the settings of its {@link Search}. Every level searches; the lower ones
+ * stop after a fixed number of nodes and a few plies and see the board through noise, so they blunder now and then.
+ * They search on a single thread, so a move never costs more than {@link #nodes} nodes or {@link Ai#thinkTimeMillis},
+ * whichever comes first.
+ */
+public enum Difficulty {
+    EASY(500, 1, 0, 300),
+    MEDIUM(5_000, 4, 4, 60),
+    HARD(Long.MAX_VALUE, Search.MAX_DEPTH, 4, 0);
+
+    /** Nodes the search may visit per move. */
+    public final long nodes;
+
+    /** Deepest iteration to search, in plies. */
+    public final int depth;
+
+    /** Plies of line-clearing drops searched past {@link #depth}, see {@link Search#quiescence}. */
+    public final int quiescence;
+
+    /** Evaluation noise: every leaf value is moved by a pseudo-random amount of up to this many points either way. */
+    public final int temperature;
+
+    Difficulty(long nodes, int depth, int quiescence, int temperature) {
+        this.nodes = nodes;
+        this.depth = depth;
+        this.quiescence = quiescence;
+        this.temperature = temperature;
+    }
+}
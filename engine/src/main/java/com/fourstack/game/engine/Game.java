@@ -0,0 +1,395 @@
+package com.fourstack.game.engine;
+
+import java.util.SplittableRandom;
+
+/**
+ * Rules and state of one FourStack match: drops, line-clear cascades and scoring, power-ups, clocks and the end of
+ * the game. Player 1 is the human in single-player games; player 2 is the second human or the AI.
+ */
+public class Game {
+    public Position position;
+    /** How the last turn's cascade went. */
+    public final Cascade cascade = new Cascade();
+
+    /**
+     * Seed of the current game and the generators split from it: one stream each for the AI's choices, power-up rolls
+     * and cosmetic effects, so a game replays exactly from its seed however often the front end draws shake frames.
+     * Each game owns its own, so games can run on many threads at once.
+     */
+    public long seed;
+    public SplittableRandom aiRandom;
+    public SplittableRandom powerUpRandom;
+    public SplittableRandom cosmeticRandom;
+    public GameListener listener = GameListener.NONE;
+
+    public Difficulty currentDifficulty = Difficulty.MEDIUM;
+    public int scoreGoal = 3000;
+    public boolean isTwoPlayer = false;
+    public boolean tutorial = false;
+
+    public int currentPlayer = 1;
+    public int score = 0;
+    public int aiScore = 0;
+    public int comboMultiplier = 0;
+    public int p1Combo = 1;
+    public int p2Combo = 1;
+
+    public int p1LinesCleared = 0;
+    public int p2LinesCleared = 0;
+    public PowerUp p1PowerUp = PowerUp.NONE;
+    public PowerUp p2PowerUp = PowerUp.NONE;
+    public boolean isShuffling1 = false;
+    public boolean isShuffling2 = false;
+    public float shuffleTimer1 = 0f;
+    public float shuffleTimer2 = 0f;
+
+    public PowerUp activeTargeting = PowerUp.NONE;
+    public boolean bulletIsRow = false;
+
+    public float p1TimeRemaining;
+    public float p2TimeRemaining;
+    public boolean p1TimerStopped = false;
+    public boolean p2TimerStopped = false;
+
+    /** 0 while the game is running, otherwise the winning player. */
+    public int winner = 0;
+    public boolean timedOut = false;
+
+    public Game(int rows, int cols) {
+        this(rows, cols, Position.DEFAULT_LINE_LENGTH);
+    }
+
+    public Game(int rows, int cols, int lineLength) {
+        position = new Position(rows, cols, lineLength);
+        reseed(new SplittableRandom().nextLong());
+    }
+
+    /**
+     * A copy of the state a move depends on, for the AI to think about on another thread; its listener does nothing.
+     * Its generators are seeded from the game's seed and {@link #stateKey()}, never drawn from this game's streams, so
+     * taking snapshots, however many, leaves the game's own rolls alone, and every snapshot of a turn decides alike.
+     */
+    public Game snapshot() {
+        Game copy = new Game(new Position(position));
+        copy.seed = seed;
+        SplittableRandom root = new SplittableRandom(seed ^ stateKey() * 0x9E3779B97F4A7C15L);
+        copy.aiRandom = root.split();
+        copy.powerUpRandom = root.split();
+        copy.cosmeticRandom = root.split();
+        copy.currentDifficulty = currentDifficulty;
+        copy.scoreGoal = scoreGoal;
+        copy.isTwoPlayer = isTwoPlayer;
+        copy.tutorial = tutorial;
+        copy.currentPlayer = currentPlayer;
+        copy.score = score;
+        copy.aiScore = aiScore;
+        copy.comboMultiplier = comboMultiplier;
+        copy.p1Combo = p1Combo;
+        copy.p2Combo = p2Combo;
+        copy.p1LinesCleared = p1LinesCleared;
+        copy.p2LinesCleared = p2LinesCleared;
+        copy.p1PowerUp = p1PowerUp;
+        copy.p2PowerUp = p2PowerUp;
+        copy.isShuffling1 = isShuffling1;
+        copy.isShuffling2 = isShuffling2;
+        copy.shuffleTimer1 = shuffleTimer1;
+        copy.shuffleTimer2 = shuffleTimer2;
+        copy.activeTargeting = activeTargeting;
+        copy.bulletIsRow = bulletIsRow;
+        copy.p1TimeRemaining = p1TimeRemaining;
+        copy.p2TimeRemaining = p2TimeRemaining;
+        copy.p1TimerStopped = p1TimerStopped;
+        copy.p2TimerStopped = p2TimerStopped;
+        copy.winner = winner;
+        copy.timedOut = timedOut;
+        return copy;
+    }
+
+    private Game(Position position) {
+        this.position = position;
+    }
+
+    public void reseed(long seed) {
+        this.seed = seed;
+        SplittableRandom root = new SplittableRandom(seed);
+        aiRandom = root.split();
+        powerUpRandom = root.split();
+        cosmeticRandom = root.split();
+    }
+
+    /** Switches to a board of a different size or line length; the next {@link #start()} begins on it. */
+    public void setBoard(int rows, int cols, int lineLength) {
+        if (position.rows != rows || position.cols != cols || position.lineLength != lineLength) {
+            position = new Position(rows, cols, lineLength);
+        }
+    }
+
+    public void start() {
+        start(new SplittableRandom().nextLong());
+    }
+
+    /** Starts a new game whose every random choice follows from {@code seed}. */
+    public void start(long seed) {
+        reseed(seed);
+        position.clear();
+        tutorial = false;
+
+        float startTime;
+        if (scoreGoal == 1000)      startTime = 120f;
+        else if (scoreGoal == 3000) startTime = 100f;
+        else                        startTime = 80f;
+
+        p1TimeRemaining = startTime;
+        p2TimeRemaining = startTime;
+
+        currentPlayer = 1;
+        aiScore = 0;
+        score = 0;
+        comboMultiplier = 0;
+
+        p1PowerUp = PowerUp.NONE;
+        p2PowerUp = PowerUp.NONE;
+        p1LinesCleared = 0;
+        p2LinesCleared = 0;
+        p1TimerStopped = false;
+        p2TimerStopped = false;
+        activeTargeting = PowerUp.NONE;
+        isShuffling1 = false;
+        isShuffling2 = false;
+        shuffleTimer1 = 0f;
+        shuffleTimer2 = 0f;
+        winner = 0;
+        timedOut = false;
+    }
+
+    public void startTutorial() {
+        position.clear();
+        tutorial = true;
+        currentPlayer = 1;
+    }
+
+    /**
+     * Zobrist hash of the whole game state a move depends on: the pieces, the player to move and the power-ups both
+     * players hold. The piece part is kept up to date by {@link Position} as pieces drop, clear and fall.
+     */
+    public long hash() {
+        long h = position.hash() ^ Position.powerUpKey(1, p1PowerUp) ^ Position.powerUpKey(2, p2PowerUp);
+        return currentPlayer == 2 ? h ^ Position.SIDE_KEY : h;
+    }
+
+    /**
+     * {@link #hash()} with both scores and line counts mixed in: everything a search from this position depends on, so
+     * an answer worked out ahead of time can be matched to the turn it was meant for.
+     */
+    public long stateKey() {
+        long scores = (score * 0x9E3779B97F4A7C15L) ^ Long.rotateLeft(aiScore * 0xC2B2AE3D27D4EB4FL, 32);
+        long lines = (p1LinesCleared * 0xD6E8FEB86659FD93L) ^ Long.rotateLeft(p2LinesCleared * 0xFF51AFD7ED558CCDL, 16);
+        return hash() ^ scores ^ lines;
+    }
+
+    public boolean isOver() {
+        return winner != 0;
+    }
+
+    public PowerUp heldPowerUp(int player) {
+        return player == 1 ? p1PowerUp : p2PowerUp;
+    }
+
+    public boolean isShuffling(int player) {
+        return player == 1 ? isShuffling1 : isShuffling2;
+    }
+
+    /**
+     * Advances the clock of the player to move (the AI's clock never runs) and the power-up rolls in progress.
+     */
+    public void tick(float deltaTime) {
+        if (currentPlayer == 1) {
+            if (!p1TimerStopped) {
+                p1TimeRemaining -= deltaTime;
+                if (p1TimeRemaining <= 0) {
+                    p1TimeRemaining = 0;
+                    timeUp(1);
+                }
+            }
+        } else if (currentPlayer == 2 && isTwoPlayer) {
+            if (!p2TimerStopped) {
+                p2TimeRemaining -= deltaTime;
+                if (p2TimeRemaining <= 0) {
+                    p2TimeRemaining = 0;
+                    timeUp(2);
+                }
+            }
+        }
+
+        if (isShuffling1) {
+            shuffleTimer1 -= deltaTime;
+            if (shuffleTimer1 <= 0) {
+                isShuffling1 = false;
+                p1PowerUp = rollPowerUp();
+            }
+        }
+        if (isShuffling2) {
+            shuffleTimer2 -= deltaTime;
+            if (shuffleTimer2 <= 0) {
+                isShuffling2 = false;
+                p2PowerUp = rollPowerUp();
+            }
+        }
+    }
+
+    PowerUp rollPowerUp() {
+        return PowerUp.values()[powerUpRandom.nextInt(5) + 1];
+    }
+
+    private void timeUp(int player) {
+        winner = (player == 1) ? 2 : 1;
+        timedOut = true;
+        listener.gameOver(winner, true);
+    }
+
+    public int dropRow(int col) {
+        return position.dropRow(col);
+    }
+
+    /** Drops a piece for the player to move straight into {@code col} and resolves the turn. */
+    public boolean drop(int col) {
+        int row = position.dropRow(col);
+        if (row == -1) return false;
+        land(row, col, currentPlayer);
+        return true;
+    }
+
+    /** Puts a piece that finished falling into the grid and resolves the turn. */
+    public void land(int row, int col, int player) {
+        position.set(row, col, player);
+        finalizeTurn(col, player);
+    }
+
+    public void finalizeTurn(int col, int playerID) {
+        p1TimerStopped = false;
+        p2TimerStopped = false;
+        comboMultiplier = 0;
+        cascade.clear();
+        int linesCleared;
+
+        while ((linesCleared = position.clearLines()) > 0) {
+            cascade.addRound(linesCleared, position.clearedCount);
+            listener.linesCleared(position);
+            comboMultiplier = cascade.combo();
+
+            if (playerID == 1) {
+                int previousClears = p1LinesCleared;
+                p1LinesCleared += linesCleared;
+                if ((p1LinesCleared / 2) > (previousClears / 2) && p1PowerUp == PowerUp.NONE && !isShuffling1) {
+                    isShuffling1 = true;
+                    shuffleTimer1 = 2.0f;
+                }
+            } else {
+                int previousClears = p2LinesCleared;
+                p2LinesCleared += linesCleared;
+                if ((p2LinesCleared / 2) > (previousClears / 2) && p2PowerUp == PowerUp.NONE && !isShuffling2) {
+                    isShuffling2 = true;
+                    shuffleTimer2 = 2.0f;
+                }
+            }
+
+            float bonus = (scoreGoal < 3000) ? 8f : 5f;
+            bonus *= linesCleared;
+            if (playerID == 1) p1TimeRemaining += bonus;
+            else p2TimeRemaining += bonus;
+
+            int points = Cascade.roundPoints(comboMultiplier);
+            if (playerID == 1) score += points;
+            else aiScore += points;
+
+            listener.cascadeStep(playerID, linesCleared, comboMultiplier);
+            position.applyGravity();
+        }
+
+        if (playerID == 1) p1Combo = Math.max(1, comboMultiplier);
+        else p2Combo = Math.max(1, comboMultiplier);
+
+        if (tutorial) {
+            currentPlayer = (playerID == 1) ? 2 : 1;
+            return;
+        }
+
+        if (score >= scoreGoal) {
+            winner = 1;
+        } else if (aiScore >= scoreGoal) {
+            winner = 2;
+        } else if (position.get(0, col) != 0) {
+            winner = (playerID == 1) ? 2 : 1;
+        }
+
+        if (winner != 0) {
+            listener.gameOver(winner, false);
+        } else {
+            currentPlayer = (playerID == 1) ? 2 : 1;
+            listener.turnStarted(currentPlayer);
+        }
+    }
+
+    /**
+     * Spends the power-up {@code playerID} is holding. Bombs and bullets only arm targeting; they go back to the
+     * player when the board is empty and there is nothing to hit.
+     */
+    public void usePowerUp(int playerID) {
+        PowerUp type = heldPowerUp(playerID);
+        if (playerID == 1) p1PowerUp = PowerUp.NONE; else p2PowerUp = PowerUp.NONE;
+        activatePowerUp(type, playerID);
+    }
+
+    void activatePowerUp(PowerUp type, int playerID) {
+        if (type == PowerUp.COIN) {
+            int coinValue = coinValue();
+            if (playerID == 1) score += coinValue; else aiScore += coinValue;
+            listener.powerUpUsed(playerID, type, coinValue);
+        }
+        else if (type == PowerUp.EIGHT) {
+            if (playerID == 1) p1TimeRemaining += 8f; else p2TimeRemaining += 8f;
+            listener.powerUpUsed(playerID, type, 0);
+        }
+        else if (type == PowerUp.STAR) {
+            if (playerID == 1) p1TimerStopped = true; else p2TimerStopped = true;
+            listener.powerUpUsed(playerID, type, 0);
+        }
+        else if (type == PowerUp.BOMB || type == PowerUp.BULLET) {
+            if (position.isEmpty()) {
+                if (playerID == 1) p1PowerUp = type; else p2PowerUp = type;
+                return;
+            }
+
+            activeTargeting = type;
+            if (type == PowerUp.BULLET) bulletIsRow = powerUpRandom.nextBoolean();
+            listener.powerUpUsed(playerID, type, 0);
+        }
+    }
+
+    /** Points a coin is worth, which depends on the difficulty. */
+    int coinValue() {
+        if (currentDifficulty == Difficulty.EASY) return 250;
+        if (currentDifficulty == Difficulty.MEDIUM) return 500;
+        return 1000;
+    }
+
+    /**
+     * Fires the armed bomb at ({@code row}, {@code col}), or the armed bullet along that row or column, and ends the
+     * turn. Returns false if nothing was fired, e.g. a bomb aimed at an empty cell.
+     */
+    public boolean executeTargeting(int col, int row) {
+        if (activeTargeting == PowerUp.BOMB) {
+            if (position.removeCell(row, col) == 0) return false;
+            listener.targetFired(PowerUp.BOMB, row, col, position);
+        } else if (activeTargeting == PowerUp.BULLET) {
+            if (bulletIsRow) position.removeRow(row); else position.removeColumn(col);
+            listener.targetFired(PowerUp.BULLET, row, col, position);
+        } else {
+            return false;
+        }
+        position.applyGravity();
+        finalizeTurn(col, currentPlayer);
+        activeTargeting = PowerUp.NONE;
+        return true;
+    }
+}
@@ -0,0 +1,25 @@
+package com.fourstack.game.engine;
+
+/**
+ * Receives the events a {@link Game} produces while it applies the rules, so a front end can play sounds and
+ * effects without the engine knowing about them. Every method defaults to doing nothing.
+ */
+public interface GameListener {
+    GameListener NONE = new GameListener() { };
+
+    /** A clear pass wiped lines; {@link Position#clearedRows}, {@link Position#clearedCols} and {@link Position#cleared} describe it. */
+    default void linesCleared(Position position) { }
+
+    /** One round of a cascade finished scoring; {@code comboMultiplier} counts the lines cleared so far this turn. */
+    default void cascadeStep(int playerID, int linesCleared, int comboMultiplier) { }
+
+    /** {@code amount} is the coin value for {@link PowerUp#COIN} and 0 otherwise. */
+    default void powerUpUsed(int playerID, PowerUp type, int amount) { }
+
+    /** A bomb or bullet fired at ({@code row}, {@code col}); {@link Position#cleared} holds the cells it emptied. */
+    default void targetFired(PowerUp type, int row, int col, Position position) { }
+
+    default void turnStarted(int player) { }
+
+    default void gameOver(int winner, boolean timedOut) { }
+}
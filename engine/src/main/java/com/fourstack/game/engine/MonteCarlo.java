@@ -0,0 +1,303 @@
+package com.fourstack.game.engine;
+
+import java.util.SplittableRandom;
+
+/**
+ * Monte Carlo tree search for the column to drop into: UCT selection down a tree kept in preallocated arrays, then a
+ * playout to the end of the game. Unlike {@link Search} it plays the whole rules through, power-ups included: every
+ * two lines earn a random power-up, and a player holding one spends it at the start of their turn the way {@link Ai}
+ * does, firing bombs and bullets at random targets. Clocks are still left out, so stars and eights do nothing.
+ * <p>
+ * The tree is open loop: a node stands for the moves that led to it rather than for one board, since the same moves
+ * reach different boards once power-ups roll differently. A turn spent firing is an edge of its own. Every iteration
+ * makes and unmakes its moves on one {@link Position}, so once the pool exists an iteration allocates nothing.
+ */
+public final class MonteCarlo {
+    /** Nodes in the default pool, about 12 MB. */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final int POWER_UPS = PowerUp.values().length - 1;
+
+    /** Exploration constant of UCT. */
+    public double exploration = 0.7;
+
+    /**
+     * Light playouts take any drop that clears a line and avoid filling the top row; otherwise drops are random.
+     * Random playouts run about three times as many per second but play noticeably weaker.
+     */
+    public boolean lightPlayouts = true;
+
+    /**
+     * Games still running this many plies past the root are won by whoever is ahead. Light playouts rarely end on
+     * their own before the score goal, so without a cap most of the time goes into the far end of long games.
+     */
+    public int maxPlies = 64;
+
+    /** Results of the last {@link #think}: iterations it ran and pool nodes in use. */
+    public long playouts;
+    public int nodesUsed;
+
+    private final int capacity;
+    private int[] visits;
+    private float[] wins;
+    private int[] firstChild;
+    private int size;
+    private long rootKey;
+
+    private Position position;
+    private SplittableRandom random;
+    private int cols;
+    private int[] order;
+    private int[] candidates;
+    private int[] path;
+    private int[] movers;
+
+    private int rootPlayer;
+    private int scoreGoal;
+    private int coinValue;
+    private final int[] rootScore = new int[3];
+    private final int[] rootLines = new int[3];
+    private final int[] rootHeld = new int[3];
+    private final boolean[] rootRolling = new boolean[3];
+    private final int[] score = new int[3];
+    private final int[] linesCleared = new int[3];
+    private final int[] held = new int[3];
+
+    private volatile boolean stopRequested;
+
+    public MonteCarlo() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MonteCarlo(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Pool needs at least one node, got " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Best column for the player to move in {@code game} to drop into, or -1 if every column is full. Thinks until
+     * {@code budgetNanos} has passed or {@link #stop()} is called. The game is not changed.
+     */
+    public int think(Game game, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        Position root = game.position;
+        cols = root.cols;
+        if (order == null || order.length != cols) {
+            order = Search.centerFirst(cols);
+            candidates = new int[cols];
+            size = 0;
+        }
+        int open = -1;
+        for (int col : order) {
+            if (root.dropRow(col) != -1) {
+                open = col;
+                break;
+            }
+        }
+        if (open == -1) return -1;
+
+        if (visits == null) {
+            visits = new int[capacity];
+            wins = new float[capacity];
+            firstChild = new int[capacity];
+        }
+        if (path == null || path.length != maxPlies + 1) {
+            path = new int[maxPlies + 1];
+            movers = new int[maxPlies + 1];
+        }
+        position = new Position(root);
+        random = game.aiRandom.split();
+        rootPlayer = game.currentPlayer;
+        scoreGoal = game.scoreGoal;
+        coinValue = game.coinValue();
+        rootScore[1] = game.score;
+        rootScore[2] = game.aiScore;
+        rootLines[1] = game.p1LinesCleared;
+        rootLines[2] = game.p2LinesCleared;
+        for (int p = 1; p <= 2; p++) {
+            rootHeld[p] = game.heldPowerUp(p).ordinal();
+            rootRolling[p] = game.isShuffling(p);
+        }
+
+        // Asked about the same turn again, as after pondering the right guess: carry on growing the same tree.
+        long key = game.stateKey();
+        if (key != rootKey || size == 0) {
+            rootKey = key;
+            size = 1;
+            visits[0] = 0;
+            wins[0] = 0;
+            firstChild[0] = -1;
+        }
+        playouts = 0;
+        while ((playouts & 63) != 0 || (System.nanoTime() < deadline && !stopRequested)) {
+            iterate();
+            playouts++;
+        }
+        nodesUsed = size;
+
+        // The most visited drop is the one the search trusts most.
+        int best = open, bestVisits = -1;
+        if (firstChild[0] != -1) {
+            for (int col : order) {
+                int n = visits[firstChild[0] + col];
+                if (root.dropRow(col) != -1 && n > bestVisits) {
+                    best = col;
+                    bestVisits = n;
+                }
+            }
+        }
+        position = null;
+        return best;
+    }
+
+    /**
+     * Makes a search running on another thread return within a few playouts. Searches keep stopping straight away
+     * until {@link #resume()}.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    public void resume() {
+        stopRequested = false;
+    }
+
+    /** One descent, expansion, playout and backup, leaving the position as it found it. */
+    private void iterate() {
+        for (int p = 1; p <= 2; p++) {
+            score[p] = rootScore[p];
+            linesCleared[p] = rootLines[p];
+            held[p] = rootRolling[p] ? roll() : rootHeld[p];
+        }
+        int player = rootPlayer;
+        int node = 0, depth = 0, plies = 0, winner = -1;
+        while (winner == -1) {
+            if (plies == maxPlies) {
+                winner = score[1] > score[2] ? 1 : score[2] > score[1] ? 2 : 0;
+                break;
+            }
+            // The player to move spends what they hold; the AI's own power-up was spent before it asked.
+            int shot = 0;
+            if (plies > 0 && held[player] != 0) {
+                int type = held[player];
+                if (type == PowerUp.BOMB.ordinal() || type == PowerUp.BULLET.ordinal()) {
+                    // With nothing to hit the power-up stays in hand.
+                    if (!position.isEmpty()) shot = type;
+                } else if (type == PowerUp.COIN.ordinal()) {
+                    score[player] += coinValue;
+                }
+                if (shot != 0 || type != PowerUp.BOMB.ordinal() && type != PowerUp.BULLET.ordinal()) held[player] = 0;
+            }
+
+            int col = -1;
+            if (node != -1) {
+                if (firstChild[node] == -1 && (node == 0 || visits[node] > 0) && size + cols + 1 <= capacity) {
+                    expand(node);
+                }
+                int parent = node;
+                node = firstChild[parent] == -1 ? -1 : select(parent, shot != 0);
+                if (node != -1) {
+                    path[++depth] = node;
+                    movers[depth] = player;
+                    col = node - firstChild[parent];
+                }
+            }
+            int lines;
+            if (shot != 0) {
+                lines = fire(shot);
+            } else {
+                if (col == -1) col = playoutColumn(player);
+                if (col == -1) {
+                    winner = 0;
+                    break;
+                }
+                lines = position.make(col, player);
+            }
+            plies++;
+            if (lines > 0) {
+                score[player] += position.cascade.points();
+                int before = linesCleared[player];
+                linesCleared[player] += lines;
+                if (linesCleared[player] / 2 > before / 2 && held[player] == 0) held[player] = roll();
+            }
+            if (score[player] >= scoreGoal) winner = player;
+            else if (shot == 0 && position.get(0, col) != 0) winner = 3 - player;
+            player = 3 - player;
+        }
+
+        for (; plies > 0; plies--) position.unmake();
+        visits[0]++;
+        for (int d = 1; d <= depth; d++) {
+            visits[path[d]]++;
+            wins[path[d]] += winner == movers[d] ? 1f : winner == 0 ? 0.5f : 0f;
+        }
+    }
+
+    /** Gives {@code node} a child for every column plus one for a turn spent firing. */
+    private void expand(int node) {
+        firstChild[node] = size;
+        for (int i = size, end = size + cols + 1; i < end; i++) {
+            visits[i] = 0;
+            wins[i] = 0;
+            firstChild[i] = -1;
+        }
+        size += cols + 1;
+    }
+
+    /**
+     * Child of {@code node} to follow: the firing edge on a turn spent firing, otherwise the open column with the best
+     * UCT bound, trying unvisited columns center-first before any is tried twice. -1 if every column is full.
+     */
+    private int select(int node, boolean firing) {
+        int base = firstChild[node];
+        if (firing) return base + cols;
+        double logVisits = Math.log(Math.max(visits[node], 1));
+        int best = -1;
+        double bestBound = Double.NEGATIVE_INFINITY;
+        for (int col : order) {
+            if (position.dropRow(col) == -1) continue;
+            int child = base + col;
+            int n = visits[child];
+            if (n == 0) return child;
+            double bound = wins[child] / n + exploration * Math.sqrt(logVisits / n);
+            if (bound > bestBound) {
+                best = child;
+                bestBound = bound;
+            }
+        }
+        return best;
+    }
+
+    /** Playout drop for {@code player}, or -1 if every column is full. */
+    private int playoutColumn(int player) {
+        int start = random.nextInt(cols);
+        int count = 0, last = -1;
+        for (int i = 0; i < cols; i++) {
+            int col = start + i < cols ? start + i : start + i - cols;
+            int row = position.dropRow(col);
+            if (row == -1) continue;
+            if (lightPlayouts) {
+                if (position.completesLine(player, row, col)) return col;
+                // Filling the top row loses on the spot; it is only played when nothing else is open.
+                last = col;
+                if (row == 0) continue;
+            }
+            candidates[count++] = col;
+        }
+        return count > 0 ? candidates[random.nextInt(count)] : last;
+    }
+
+    /** Fires a bomb at a random piece or a bullet along a random row or column, as {@link Ai} aims them. */
+    private int fire(int type) {
+        if (type == PowerUp.BOMB.ordinal()) {
+            int cell = position.nthPiece(random.nextInt(position.pieceCount()));
+            return position.makeShot(PowerUp.BOMB, false, position.rowOf(cell), position.colOf(cell));
+        }
+        if (random.nextBoolean()) return position.makeShot(PowerUp.BULLET, true, random.nextInt(position.rows), 0);
+        return position.makeShot(PowerUp.BULLET, false, 0, random.nextInt(cols));
+    }
+
+    private int roll() {
+        return 1 + random.nextInt(POWER_UPS);
+    }
+}
@@ -0,0 +1,143 @@
+package com.fourstack.game.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Columns worked out ahead of time by {@link BookGenerator} for positions early in a game, read straight from a
+ * memory-mapped file: nothing is loaded onto the heap, and a lookup is a binary search over the mapped records.
+ * <p>
+ * A position and its mirror image share one record, keyed by whichever of the two hashes is lower, so the book holds
+ * about half the positions it answers. Its columns only hold for the score goal it was worked out for, which it
+ * records; games to any other goal get nothing from it. The file is a header of seven ints (magic, version, rows,
+ * cols, line length, score goal, record count) followed by the records sorted by key, each a long key, an int value
+ * and a short column, padded to {@link #RECORD} bytes. Everything is big-endian.
+ */
+public final class OpeningBook {
+    static final int MAGIC = 0x4653_424B;
+    static final int VERSION = 2;
+    static final int HEADER = 28;
+    static final int RECORD = 16;
+
+    public final int rows;
+    public final int cols;
+    public final int lineLength;
+    public final int scoreGoal;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    private OpeningBook(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        rows = buffer.getInt(8);
+        cols = buffer.getInt(12);
+        lineLength = buffer.getInt(16);
+        scoreGoal = buffer.getInt(20);
+        size = buffer.getInt(24);
+    }
+
+    /** Maps the book in {@code file}, which stays mapped for as long as the book is reachable. */
+    public static OpeningBook open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER) throw new IOException("Not an opening book: " + file);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC) throw new IOException("Not an opening book: " + file);
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Opening book version " + buffer.getInt(4) + " is not " + VERSION + ": " + file);
+            }
+            if (length != HEADER + (long) buffer.getInt(24) * RECORD) {
+                throw new IOException("Opening book is truncated: " + file);
+            }
+            return new OpeningBook(buffer);
+        }
+    }
+
+    /** Positions in the book, mirror images counted once. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The book's column for the player to move in {@code game}, or -1 if the book does not know the position or was
+     * made for another board or score goal.
+     */
+    public int column(Game game) {
+        Position position = game.position;
+        if (position.rows != rows || position.cols != cols || position.lineLength != lineLength) return -1;
+        if (game.scoreGoal != scoreGoal) return -1;
+        int me = game.currentPlayer;
+        int myScore = (me == 1) ? game.score : game.aiScore;
+        int opponentScore = (me == 1) ? game.aiScore : game.score;
+        long hash = position.hash(), mirror = position.mirrorHash();
+        int i = find(key(Math.min(hash, mirror), me, myScore, opponentScore));
+        if (i < 0) return -1;
+        int col = buffer.getShort(HEADER + i * RECORD + 12);
+        if (mirror < hash) col = cols - 1 - col;
+        return position.dropRow(col) != -1 ? col : -1;
+    }
+
+    /** Record holding {@code key}, or -1. */
+    private int find(long key) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long k = buffer.getLong(HEADER + mid * RECORD);
+            if (k < key) low = mid + 1;
+            else if (k > key) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Book key of a position: the lower of its board hash and its mirror's, with the player to move and both scores
+     * mixed in, since the best column depends on them too.
+     */
+    static long key(long boardHash, int player, int myScore, int opponentScore) {
+        long scores = (myScore * 0x9E3779B97F4A7C15L) ^ Long.rotateLeft(opponentScore * 0xC2B2AE3D27D4EB4FL, 32);
+        return boardHash ^ scores ^ (player == 2 ? Position.SIDE_KEY : 0);
+    }
+
+    /**
+     * Writes a book for {@code rows} x {@code cols} boards and games to {@code scoreGoal} from the first {@code count}
+     * records, given as parallel arrays of keys, values and columns in any order. Keys must be unique.
+     */
+    static void write(OutputStream out, int rows, int cols, int lineLength, int scoreGoal, long[] keys, int[] values,
+            int[] columns, int count) throws IOException {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(rows);
+        data.writeInt(cols);
+        data.writeInt(lineLength);
+        data.writeInt(scoreGoal);
+        data.writeInt(count);
+        for (int i : order) {
+            data.writeLong(keys[i]);
+            data.writeInt(values[i]);
+            data.writeShort(columns[i]);
+            data.writeShort(0);
+        }
+        data.flush();
+    }
+
+    /** {@link #write} to {@code file}, replacing it. */
+    static void write(Path file, int rows, int cols, int lineLength, int scoreGoal, long[] keys, int[] values,
+            int[] columns, int count) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            write(out, rows, cols, lineLength, scoreGoal, keys, values, columns, count);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.fourstack.game.engine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Learns {@link PatternWeights} from self-play by temporal-difference learning, on the CPU with a thread per
+ * processor. Every game is played out by the real rules, power-ups, cascades and clock included, by two {@link Ai}s
+ * searching with the weights learned so far; the positions are sent back and the weights are moved, one finished game
+ * at a time on the main thread, towards predicting who wins.
+ * <p>
+ * A position's prediction is the chance that the player to move wins, {@code 1 / (1 + e^(-v / SCALE))}, where
+ * {@code v} is the search's static value with the pattern values in. The target for each position is its
+ * TD(lambda) return: the outcome for the last one, and for the others a mix of the next position's prediction and
+ * the next position's own target, turned around when the other player moves there. The hand-written part of the
+ * value stays fixed, so the patterns learn what it misses.
+ * <p>
+ * Arguments: options, then the output file. Options: {@code --games=} (default 20000), {@code --threads=} (default:
+ * available processors), {@code --seed=} (default 1), {@code --difficulty=} the players search at (default MEDIUM),
+ * {@code --rate=} points the value moves per unit of prediction error (default 200), {@code --lambda=} (default 0.7),
+ * {@code --publish=} games between handing new weights to the players, which are also written out then (default
+ * 200), {@code --from=} weights file to start from (default all zero), {@code --goal=} (default 3000),
+ * {@code --board=} rows x cols x line length (default 6x7x4) and {@code --seconds=} per move (default 0.5).
+ */
+public final class PatternTrainer {
+    /** Points of value that make the player to move e times likelier to win than to lose. */
+    static final double SCALE = 400;
+
+    /** One position of a game: who was to move, the hand-written value for them, and every window's state. */
+    static final class Sample {
+        final int mover;
+        final int value;
+        final int[] own;
+        final int[] other;
+
+        Sample(int mover, int value, int[] own, int[] other) {
+            this.mover = mover;
+            this.value = value;
+            this.own = own;
+            this.other = other;
+        }
+    }
+
+    /** The positions of one game in order and its winner: 1, 2 or 0 for a draw. */
+    static final class Record {
+        final List<Sample> samples = new ArrayList<>();
+        int winner;
+    }
+
+    private final int rows;
+    private final int cols;
+    private final int lineLength;
+    private final int scoreGoal;
+    private final float secondsPerMove;
+    private final Difficulty difficulty;
+    private final double rate;
+    private final double lambda;
+    private final ThreadLocal<Ai> ais = ThreadLocal.withInitial(Ai::new);
+
+    /** Weights being learned, as doubles; only the main thread touches them. */
+    private final double[] weights;
+    private final int windows;
+    private final int states;
+    private final int[] ternary;
+
+    /** Rounded copy of {@link #weights} the players search with. */
+    private volatile PatternWeights published;
+
+    /** Squared error of the predictions against who actually won, since the last report. */
+    private double squaredError;
+    private int errors;
+
+    PatternTrainer(PatternWeights start, int scoreGoal, float secondsPerMove, Difficulty difficulty, double rate,
+            double lambda) {
+        rows = start.rows;
+        cols = start.cols;
+        lineLength = start.lineLength;
+        this.scoreGoal = scoreGoal;
+        this.secondsPerMove = secondsPerMove;
+        this.difficulty = difficulty;
+        this.rate = rate;
+        this.lambda = lambda;
+        windows = start.windows;
+        states = start.states;
+        ternary = start.ternary;
+        weights = new double[start.values.length];
+        for (int i = 0; i < weights.length; i++) weights[i] = start.values[i];
+        published = start;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        int games = 20000, threads = Runtime.getRuntime().availableProcessors(), scoreGoal = 3000, publish = 200;
+        int rows = 6, cols = 7, lineLength = Position.DEFAULT_LINE_LENGTH;
+        long seed = 1;
+        float seconds = 0.5f;
+        double rate = 200, lambda = 0.7;
+        Difficulty difficulty = Difficulty.MEDIUM;
+        Path from = null, file = null;
+        for (String arg : args) {
+            if (arg.startsWith("--games=")) games = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(arg.substring(7));
+            else if (arg.startsWith("--difficulty=")) difficulty = Difficulty.valueOf(arg.substring(13));
+            else if (arg.startsWith("--rate=")) rate = Double.parseDouble(arg.substring(7));
+            else if (arg.startsWith("--lambda=")) lambda = Double.parseDouble(arg.substring(9));
+            else if (arg.startsWith("--publish=")) publish = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--from=")) from = Paths.get(arg.substring(7));
+            else if (arg.startsWith("--goal=")) scoreGoal = Integer.parseInt(arg.substring(7));
+            else if (arg.startsWith("--seconds=")) seconds = Float.parseFloat(arg.substring(10));
+            else if (arg.startsWith("--board=")) {
+                String[] size = arg.substring(8).split("x");
+                rows = Integer.parseInt(size[0]);
+                cols = Integer.parseInt(size[1]);
+                if (size.length > 2) lineLength = Integer.parseInt(size[2]);
+            } else {
+                file = Paths.get(arg);
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: PatternTrainer [--games=N] [--threads=N] [--seed=N] [--difficulty=D]"
+                    + " [--rate=F] [--lambda=F] [--publish=N] [--from=FILE] [--goal=N] [--board=RxCxL]"
+                    + " [--seconds=F] <file>");
+            System.exit(2);
+        }
+        PatternWeights start = from != null ? PatternWeights.read(from) : new PatternWeights(rows, cols, lineLength);
+        PatternTrainer trainer = new PatternTrainer(start, scoreGoal, seconds, difficulty, rate, lambda);
+        trainer.run(games, threads, seed, publish, file);
+    }
+
+    /** Plays and learns from {@code games} games, writing the weights to {@code file} as it goes and at the end. */
+    void run(int games, int threads, long seed, int publish, Path file)
+            throws IOException, InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "fourstack-trainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Record> records = new ExecutorCompletionService<>(pool);
+        for (int g = 0; g < games; g++) {
+            long gameSeed = seed + g;
+            records.submit(() -> play(gameSeed));
+        }
+
+        long start = System.nanoTime();
+        int positions = 0;
+        for (int done = 1; done <= games; done++) {
+            Record record = records.take().get();
+            learn(record);
+            positions += record.samples.size();
+            if (done % publish == 0 || done == games) {
+                published = round();
+                published.write(file);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%d/%d games, %d positions, %.1f games/s, outcome error %.4f%n", done, games,
+                        positions, done / seconds, squaredError / Math.max(errors, 1));
+                squaredError = 0;
+                errors = 0;
+            }
+        }
+        pool.shutdownNow();
+        System.out.println("Weights written to " + file);
+    }
+
+    /** Plays one game between two AIs searching with the latest published weights, sampling every turn. */
+    Record play(long seed) {
+        Ai ai = ais.get();
+        ai.search.patterns = published;
+        Game game = new Game(rows, cols, lineLength);
+        game.isTwoPlayer = true;
+        game.scoreGoal = scoreGoal;
+        game.currentDifficulty = difficulty;
+        game.start(seed);
+        Record record = new Record();
+        for (int turn = 0; turn < Tournament.MAX_TURNS && !game.isOver(); turn++) {
+            int mover = game.currentPlayer;
+            record.samples.add(sample(game));
+            int col = ai.move(game);
+            if (col != -1) game.drop(col);
+            // A turn that neither dropped nor fired would repeat forever; call it a draw.
+            else if (game.currentPlayer == mover && !game.isOver()) break;
+            game.tick(secondsPerMove);
+        }
+        record.winner = game.winner;
+        return record;
+    }
+
+    private Sample sample(Game game) {
+        int me = game.currentPlayer;
+        int myScore = (me == 1) ? game.score : game.aiScore;
+        int opponentScore = (me == 1) ? game.aiScore : game.score;
+        Position position = new Position(game.position);
+        position.usePatterns(null);
+        int[] own = new int[windows], other = new int[windows];
+        position.patternStates(me, ternary, own);
+        position.patternStates(3 - me, ternary, other);
+        return new Sample(me, Search.value(position, me, myScore, opponentScore), own, other);
+    }
+
+    /** Moves the weights towards every position's TD(lambda) return, from the last position back. */
+    void learn(Record record) {
+        List<Sample> samples = record.samples;
+        double nextPrediction = 0, nextTarget = 0;
+        int nextMover = 0;
+        for (int t = samples.size() - 1; t >= 0; t--) {
+            Sample sample = samples.get(t);
+            double prediction = predict(sample);
+            double target;
+            if (t == samples.size() - 1) {
+                target = record.winner == 0 ? 0.5 : record.winner == sample.mover ? 1 : 0;
+            } else {
+                target = (1 - lambda) * nextPrediction + lambda * nextTarget;
+                if (nextMover != sample.mover) target = 1 - target;
+            }
+            double outcome = record.winner == 0 ? 0.5 : record.winner == sample.mover ? 1 : 0;
+            squaredError += (outcome - prediction) * (outcome - prediction);
+            errors++;
+            double error = target - prediction;
+            // Each window's pair of states shares the step, so the value moves by about rate * error.
+            double step = rate * error / (2 * windows);
+            for (int w = 0, at = 0; w < windows; w++, at += states) {
+                weights[at + sample.own[w]] += step;
+                weights[at + sample.other[w]] -= step;
+            }
+            nextPrediction = prediction;
+            nextTarget = target;
+            nextMover = sample.mover;
+        }
+    }
+
+    /** Chance that the player to move in {@code sample} wins, by the current weights. */
+    private double predict(Sample sample) {
+        double value = sample.value;
+        for (int w = 0, at = 0; w < windows; w++, at += states) {
+            value += weights[at + sample.own[w]] - weights[at + sample.other[w]];
+        }
+        return 1 / (1 + Math.exp(-value / SCALE));
+    }
+
+    private PatternWeights round() {
+        PatternWeights rounded = new PatternWeights(rows, cols, lineLength);
+        for (int i = 0; i < weights.length; i++) rounded.values[i] = (int) Math.round(weights[i]);
+        return rounded;
+    }
+}
@@ -0,0 +1,117 @@
+package com.fourstack.game.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Learned evaluation by {@link PatternTrainer}: a value in points for every way a window of {@link #lineLength}
+ * cells along a row, column or diagonal can be filled, each window with its own table, since a pattern is worth more
+ * low on the board than under a full column. A board is worth the sum over its windows seen from one player minus
+ * the same sum seen from the other; {@link Position} keeps both sums up to date as lines change, so the search reads
+ * them at a leaf like its threat counts.
+ * <p>
+ * The file is a header of six ints (magic, version, rows, cols, line length, window count) followed by a short per
+ * window and state, window by window. Everything is big-endian.
+ */
+public final class PatternWeights {
+    static final int MAGIC = 0x4653_5057;
+    static final int VERSION = 1;
+
+    /** Longest window with a table; a window has 3 to this power states. */
+    static final int MAX_LINE_LENGTH = 8;
+
+    public final int rows;
+    public final int cols;
+    public final int lineLength;
+
+    final int windows;
+    final int states;
+
+    /** Value of window {@code w} in state {@code s} at {@code w * states + s}, for the player it is seen from. */
+    final int[] values;
+
+    /** Pieces of a window as bits, low bit first, to the base-3 number with a 1 digit for each: a state of 1s. */
+    final int[] ternary;
+
+    /** Weights that are all zero, for a {@code rows} x {@code cols} board and lines of {@code lineLength}. */
+    public PatternWeights(int rows, int cols, int lineLength) {
+        if (lineLength > MAX_LINE_LENGTH) {
+            throw new IllegalArgumentException("Line length " + lineLength + " is above " + MAX_LINE_LENGTH);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.lineLength = lineLength;
+        windows = new Position(rows, cols, lineLength).patternWindows();
+        int[] digit = new int[lineLength];
+        digit[0] = 1;
+        for (int i = 1; i < lineLength; i++) digit[i] = digit[i - 1] * 3;
+        states = digit[lineLength - 1] * 3;
+        values = new int[windows * states];
+        ternary = new int[1 << lineLength];
+        for (int bits = 1; bits < ternary.length; bits++) {
+            ternary[bits] = ternary[bits & (bits - 1)] + digit[Integer.numberOfTrailingZeros(bits)];
+        }
+    }
+
+    /** Whether these weights are for {@code position}'s board size and line length. */
+    public boolean fits(Position position) {
+        return position.rows == rows && position.cols == cols && position.lineLength == lineLength;
+    }
+
+    /** Reads weights written by {@link #write}. */
+    public static PatternWeights read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (data.readInt() != MAGIC) throw new IOException("Not a pattern weights file");
+            int version = data.readInt();
+            if (version != VERSION) throw new IOException("Pattern weights version " + version + " is not " + VERSION);
+            int rows = data.readInt(), cols = data.readInt(), lineLength = data.readInt();
+            PatternWeights weights;
+            try {
+                weights = new PatternWeights(rows, cols, lineLength);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Pattern weights for an unusable board", e);
+            }
+            if (data.readInt() != weights.windows) throw new IOException("Pattern weights have the wrong window count");
+            for (int i = 0; i < weights.values.length; i++) weights.values[i] = data.readShort();
+            return weights;
+        } catch (EOFException e) {
+            throw new IOException("Pattern weights are truncated", e);
+        }
+    }
+
+    /** {@link #read} from {@code file}. */
+    public static PatternWeights read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /** Writes the weights, each clamped to a short. */
+    void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(rows);
+        data.writeInt(cols);
+        data.writeInt(lineLength);
+        data.writeInt(windows);
+        for (int value : values) data.writeShort(Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+        data.flush();
+    }
+
+    /** {@link #write} to {@code file}, replacing it. */
+    void write(Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            write(out);
+        }
+    }
+}
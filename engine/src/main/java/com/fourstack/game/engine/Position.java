@@ -0,0 +1,809 @@
+package com.fourstack.game.engine;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Bitboard position for a FourStack grid of up to 63 rows by 64 columns, with a configurable line length.
+ * <p>
+ * Every row, column and diagonal of the grid is a <em>line</em> with one {@code long} per player and one bit per cell
+ * along it, so finding a run on a line is a couple of shifts and ANDs on a single word. Each cell lies on four lines;
+ * the tables built in the constructor map a cell to its four (line, bit) pairs and a line back to its cells, so
+ * placing, removing and scanning pieces never walks the grid. Cells are numbered column by column from the floor up,
+ * {@code cell = col * rows + height}. Row arguments use the same convention as the old {@code int[][] grid}: row 0 is
+ * the top of the board.
+ */
+public final class Position {
+    public static final int DEFAULT_LINE_LENGTH = 4;
+    public static final int MAX_ROWS = 63;
+    public static final int MAX_COLS = 64;
+
+    public final int rows;
+    public final int cols;
+    public final int lineLength;
+
+    /** Lines are numbered rows first (by height), then columns, then down-right and up-right diagonals. */
+    final int lineCount;
+
+    /** Pieces of each player (index 1 and 2) on every line, bit = column for rows and diagonals, height for columns. */
+    final long[][] lines;
+    final int[] heights;
+
+    /**
+     * Lines that received a piece since the last {@link #clearLines()}: drops, placements and pieces moved by
+     * gravity. The board never rests with a completed line on it, so any new line has to be one of these.
+     */
+    final long[] dirty;
+
+    /** Columns that lost a piece and may have pieces left hanging, one bit per column. */
+    long unsettledColumns;
+
+    /** Grid rows and columns wiped by the last clear, one bit per index, and the cells it emptied. */
+    public long clearedRows;
+    public long clearedCols;
+    public final long[] cleared;
+    public int clearedCount;
+
+    /**
+     * Zobrist keys, one per cell and player, and the running XOR of the keys of every piece on the board. The keys
+     * come from a fixed seed so a hash means the same thing from one run to the next.
+     */
+    private final long[] keys;
+    private long hash;
+
+    /** Added by {@link Game#hash()} when player 2 is to move, and for the power-up each player holds. */
+    static final long SIDE_KEY;
+    private static final long[] POWER_UP_KEYS = new long[3 * PowerUp.values().length];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x4F53_5441_434BL);
+        SIDE_KEY = random.nextLong();
+        for (int i = 0; i < POWER_UP_KEYS.length; i++) {
+            POWER_UP_KEYS[i] = random.nextLong();
+        }
+    }
+
+    /** Per-round result of the last {@link #make} or {@link #makeShot}. */
+    public final Cascade cascade = new Cascade();
+
+    /**
+     * Undo log for {@link #make} and {@link #makeShot}: every move pushes (player 1 word, player 2 word, column) for
+     * each column it changes, saved just before the first change, followed by the number of columns saved.
+     */
+    private long[] undo = new long[64];
+    private int undoSize;
+    private boolean recording;
+    private long savedColumns;
+
+    private final int[] cellLines;
+    private final byte[] cellBits;
+    private final int[] lineStart;
+    private final int[] lineStep;
+    private final int[] runShifts;
+    private final long[] hits;
+
+    /**
+     * Threats for the evaluation: empty cells that would complete a line for a player. Kept per line and player as
+     * line bits, per cell and player as the number of lines the cell completes, per column and player as height bits,
+     * and per player as the number of cells completing at least one line and at least two. Pieces changing only mark
+     * their lines stale; {@link #updateThreats()} redoes the stale lines, so a cascade's passing states cost nothing.
+     */
+    private final long[][] threatLines;
+    private final byte[][] threatCounts;
+    private final long[][] threatColumns;
+    private final int[] threatCells = new int[3];
+    private final int[] comboCells = new int[3];
+    private final long[] staleThreats;
+    private final long[] lineMask;
+
+    /**
+     * Learned pattern values, kept the same way: each line's windows of {@link #lineLength} cells, numbered line by
+     * line from {@link #windowBase}, are looked up in {@link #patterns} for both players whenever the line goes
+     * stale, and their sums per line and player add up to {@link #patternValue}.
+     */
+    private final int[] windowBase;
+    private PatternWeights patterns;
+    private int[][] patternLines;
+    private final int[] patternSums = new int[3];
+
+    /**
+     * Lookup from an 8-cell slice of a column, packed as {@code occupancy << 8 | player1}, to player 1's pieces in
+     * that slice after they have fallen. Player 2 fills the remaining low bits.
+     */
+    private static final byte[] GRAVITY = new byte[1 << 16];
+
+    static {
+        for (int occ = 0; occ < 256; occ++) {
+            for (int p1 = occ; ; p1 = (p1 - 1) & occ) {
+                int packed = 0, h = 0;
+                for (int o = occ; o != 0; o &= o - 1, h++) {
+                    if ((p1 & o & -o) != 0) packed |= 1 << h;
+                }
+                GRAVITY[(occ << 8) | p1] = (byte) packed;
+                if (p1 == 0) break;
+            }
+        }
+    }
+
+    public Position(int rows, int cols) {
+        this(rows, cols, DEFAULT_LINE_LENGTH);
+    }
+
+    public Position(int rows, int cols, int lineLength) {
+        if (rows < 1 || rows > MAX_ROWS || cols < 1 || cols > MAX_COLS) {
+            throw new IllegalArgumentException("Board " + rows + "x" + cols + " is outside 1x1.." + MAX_ROWS + "x" + MAX_COLS);
+        }
+        if (lineLength < 2 || lineLength > Math.max(rows, cols)) {
+            throw new IllegalArgumentException("Line length " + lineLength + " does not fit a " + rows + "x" + cols + " board");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.lineLength = lineLength;
+
+        int diagonals = rows + cols - 1;
+        lineCount = rows + cols + 2 * diagonals;
+        lines = new long[3][lineCount];
+        heights = new int[cols];
+        dirty = new long[(lineCount + 63) >>> 6];
+        hits = new long[dirty.length];
+        cleared = new long[(rows * cols + 63) >>> 6];
+        threatLines = new long[3][lineCount];
+        threatCounts = new byte[3][rows * cols];
+        threatColumns = new long[3][cols];
+        staleThreats = new long[dirty.length];
+
+        // A run of n bits survives ANDing the word with itself shifted by these amounts; each shift at most doubles
+        // the run already covered, so connect-4 takes two steps and connect-5 three.
+        int steps = 0;
+        for (int k = 1; k < lineLength; k += Math.min(k, lineLength - k)) steps++;
+        runShifts = new int[steps];
+        for (int k = 1, i = 0; k < lineLength; k += runShifts[i++]) runShifts[i] = Math.min(k, lineLength - k);
+
+        keys = new long[rows * cols * 2];
+        SplittableRandom random = new SplittableRandom(0x5A0B_0000L ^ rows << 8 ^ cols);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+
+        cellLines = new int[rows * cols * 4];
+        cellBits = new byte[rows * cols * 4];
+        for (int c = 0; c < cols; c++) {
+            for (int h = 0; h < rows; h++) {
+                int k = (c * rows + h) * 4;
+                cellLines[k] = h;
+                cellBits[k] = (byte) c;
+                cellLines[k + 1] = rows + c;
+                cellBits[k + 1] = (byte) h;
+                cellLines[k + 2] = rows + cols + h + c;
+                cellBits[k + 2] = (byte) c;
+                cellLines[k + 3] = rows + cols + diagonals + c - h + rows - 1;
+                cellBits[k + 3] = (byte) c;
+            }
+        }
+
+        lineMask = new long[lineCount];
+        for (int k = 0; k < cellLines.length; k++) lineMask[cellLines[k]] |= 1L << cellBits[k];
+        windowBase = new int[lineCount + 1];
+        for (int line = 0; line < lineCount; line++) {
+            windowBase[line + 1] = windowBase[line] + Math.max(0, Long.bitCount(lineMask[line]) - lineLength + 1);
+        }
+
+        // Cell at bit b of a line is lineStart + b * lineStep.
+        lineStart = new int[lineCount];
+        lineStep = new int[lineCount];
+        for (int h = 0; h < rows; h++) {
+            lineStart[h] = h;
+            lineStep[h] = rows;
+        }
+        for (int c = 0; c < cols; c++) {
+            lineStart[rows + c] = c * rows;
+            lineStep[rows + c] = 1;
+        }
+        for (int d = 0; d < diagonals; d++) {
+            lineStart[rows + cols + d] = d;
+            lineStep[rows + cols + d] = rows - 1;
+            lineStart[rows + cols + diagonals + d] = rows - 1 - d;
+            lineStep[rows + cols + diagonals + d] = rows + 1;
+        }
+    }
+
+    /** A copy of {@code other}'s pieces that shares its lookup tables, so another thread can search on it. */
+    public Position(Position other) {
+        rows = other.rows;
+        cols = other.cols;
+        lineLength = other.lineLength;
+        lineCount = other.lineCount;
+        lines = new long[][] { new long[lineCount], other.lines[1].clone(), other.lines[2].clone() };
+        heights = other.heights.clone();
+        dirty = other.dirty.clone();
+        unsettledColumns = other.unsettledColumns;
+        hits = new long[dirty.length];
+        cleared = new long[other.cleared.length];
+        keys = other.keys;
+        hash = other.hash;
+        cellLines = other.cellLines;
+        cellBits = other.cellBits;
+        lineStart = other.lineStart;
+        lineStep = other.lineStep;
+        runShifts = other.runShifts;
+        lineMask = other.lineMask;
+        threatLines = new long[][] { new long[lineCount], other.threatLines[1].clone(), other.threatLines[2].clone() };
+        threatCounts = new byte[][] { null, other.threatCounts[1].clone(), other.threatCounts[2].clone() };
+        threatColumns = new long[][] { null, other.threatColumns[1].clone(), other.threatColumns[2].clone() };
+        System.arraycopy(other.threatCells, 0, threatCells, 0, 3);
+        System.arraycopy(other.comboCells, 0, comboCells, 0, 3);
+        staleThreats = other.staleThreats.clone();
+        windowBase = other.windowBase;
+        patterns = other.patterns;
+        if (patterns != null) {
+            patternLines = new int[][] { null, other.patternLines[1].clone(), other.patternLines[2].clone() };
+            System.arraycopy(other.patternSums, 0, patternSums, 0, 3);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(lines[1], 0);
+        Arrays.fill(lines[2], 0);
+        Arrays.fill(heights, 0);
+        Arrays.fill(dirty, 0);
+        unsettledColumns = 0;
+        undoSize = 0;
+        hash = 0;
+        for (int player = 1; player <= 2; player++) {
+            Arrays.fill(threatLines[player], 0);
+            Arrays.fill(threatCounts[player], (byte) 0);
+            Arrays.fill(threatColumns[player], 0);
+            threatCells[player] = 0;
+            comboCells[player] = 0;
+        }
+        Arrays.fill(staleThreats, 0);
+        // Empty windows have values too.
+        if (patterns != null) resetPatterns();
+    }
+
+    /** Zobrist hash of the pieces on the board; {@link Game#hash()} adds side to move and held power-ups. */
+    public long hash() {
+        return hash;
+    }
+
+    static long powerUpKey(int player, PowerUp type) {
+        return type == PowerUp.NONE ? 0 : POWER_UP_KEYS[player * PowerUp.values().length + type.ordinal()];
+    }
+
+    /** {@link #hash()} of this board mirrored left to right, worked out from scratch. */
+    public long mirrorHash() {
+        long h = 0;
+        for (int c = 0; c < cols; c++) {
+            int mirrored = cols - 1 - c;
+            for (int player = 1; player <= 2; player++) {
+                for (long bits = lines[player][rows + c]; bits != 0; bits &= bits - 1) {
+                    h ^= keys[(mirrored * rows + Long.numberOfTrailingZeros(bits)) * 2 + player - 1];
+                }
+            }
+        }
+        return h;
+    }
+
+    /** The hash recomputed from scratch, for checking the incremental one. */
+    long computeHash() {
+        long h = 0;
+        for (int c = 0; c < cols; c++) {
+            for (int player = 1; player <= 2; player++) {
+                for (long bits = lines[player][rows + c]; bits != 0; bits &= bits - 1) {
+                    h ^= keys[(c * rows + Long.numberOfTrailingZeros(bits)) * 2 + player - 1];
+                }
+            }
+        }
+        return h;
+    }
+
+    public int cell(int row, int col) {
+        return col * rows + rows - 1 - row;
+    }
+
+    public int rowOf(int cell) {
+        return rows - 1 - cell % rows;
+    }
+
+    public int colOf(int cell) {
+        return cell / rows;
+    }
+
+    /** Pieces of {@code player} in {@code col}, bit 0 at the floor. */
+    public long column(int player, int col) {
+        return lines[player][rows + col];
+    }
+
+    public long occupied(int col) {
+        return lines[1][rows + col] | lines[2][rows + col];
+    }
+
+    public int pieceCount() {
+        int n = 0;
+        for (int c = 0; c < cols; c++) n += Long.bitCount(occupied(c));
+        return n;
+    }
+
+    /** Cell of piece number {@code n}, counting from 0 up each column in turn from the left. */
+    public int nthPiece(int n) {
+        int col = 0;
+        long occupied = occupied(0);
+        while (n >= Long.bitCount(occupied)) {
+            n -= Long.bitCount(occupied);
+            occupied = occupied(++col);
+        }
+        for (; n > 0; n--) occupied &= occupied - 1;
+        return col * rows + Long.numberOfTrailingZeros(occupied);
+    }
+
+    public boolean isEmpty() {
+        for (int c = 0; c < cols; c++) {
+            if (occupied(c) != 0) return false;
+        }
+        return true;
+    }
+
+    public int get(int row, int col) {
+        long b = 1L << (rows - 1 - row);
+        if ((lines[1][rows + col] & b) != 0) return 1;
+        if ((lines[2][rows + col] & b) != 0) return 2;
+        return 0;
+    }
+
+    public void set(int row, int col, int player) {
+        int cell = cell(row, col);
+        remove(cell);
+        if (player != 0) add(cell, player);
+        else unsettledColumns |= 1L << col;
+        heights[col] = Long.numberOfTrailingZeros(~occupied(col));
+    }
+
+    /** Grid row a piece dropped into {@code col} would land on, or -1 if the column is full or out of range. */
+    public int dropRow(int col) {
+        if (col < 0 || col >= cols || heights[col] >= rows) return -1;
+        return rows - 1 - heights[col];
+    }
+
+    public boolean drop(int col, int player) {
+        if (dropRow(col) == -1) return false;
+        add(col * rows + heights[col], player);
+        heights[col]++;
+        return true;
+    }
+
+    private void add(int cell, int player) {
+        hash ^= keys[cell * 2 + player - 1];
+        long[] own = lines[player];
+        for (int k = cell * 4, end = k + 4; k < end; k++) {
+            int line = cellLines[k];
+            own[line] |= 1L << cellBits[k];
+            dirty[line >>> 6] |= 1L << line;
+            staleThreats[line >>> 6] |= 1L << line;
+        }
+    }
+
+    /** Like {@link #add} without marking anything dirty, for restoring a position that was already at rest. */
+    private void place(int cell, int player) {
+        hash ^= keys[cell * 2 + player - 1];
+        long[] own = lines[player];
+        for (int k = cell * 4, end = k + 4; k < end; k++) {
+            int line = cellLines[k];
+            own[line] |= 1L << cellBits[k];
+            staleThreats[line >>> 6] |= 1L << line;
+        }
+    }
+
+    private void remove(int cell) {
+        long[] p1 = lines[1], p2 = lines[2];
+        int column = cellLines[cell * 4 + 1];
+        int h = cellBits[cell * 4 + 1];
+        if ((p1[column] >>> h & 1) != 0) hash ^= keys[cell * 2];
+        else if ((p2[column] >>> h & 1) != 0) hash ^= keys[cell * 2 + 1];
+        for (int k = cell * 4, end = k + 4; k < end; k++) {
+            int line = cellLines[k];
+            long keep = ~(1L << cellBits[k]);
+            p1[line] &= keep;
+            p2[line] &= keep;
+            staleThreats[line >>> 6] |= 1L << line;
+        }
+    }
+
+    /** Brings the threat counts and pattern values up to date with every line that changed since the last call. */
+    public void updateThreats() {
+        for (int w = 0; w < staleThreats.length; w++) {
+            for (long bits = staleThreats[w]; bits != 0; bits &= bits - 1) {
+                int line = (w << 6) | Long.numberOfTrailingZeros(bits);
+                long empty = lineMask[line] & ~(lines[1][line] | lines[2][line]);
+                updateThreats(1, line, empty);
+                updateThreats(2, line, empty);
+                if (patterns != null) updatePatterns(line);
+            }
+            staleThreats[w] = 0;
+        }
+    }
+
+    private void updatePatterns(int line) {
+        int base = windowBase[line], count = windowBase[line + 1] - base;
+        if (count == 0) return;
+        int low = Long.numberOfTrailingZeros(lineMask[line]);
+        long p1 = lines[1][line] >>> low, p2 = lines[2][line] >>> low;
+        int[] values = patterns.values, ternary = patterns.ternary;
+        int states = patterns.states, mask = (1 << lineLength) - 1;
+        int v1 = 0, v2 = 0;
+        for (int k = 0, at = base * states; k < count; k++, at += states) {
+            int a = ternary[(int) (p1 >>> k) & mask], b = ternary[(int) (p2 >>> k) & mask];
+            v1 += values[at + a + 2 * b];
+            v2 += values[at + b + 2 * a];
+        }
+        patternSums[1] += v1 - patternLines[1][line];
+        patternSums[2] += v2 - patternLines[2][line];
+        patternLines[1][line] = v1;
+        patternLines[2][line] = v2;
+    }
+
+    /**
+     * Looks the position up in {@code weights} from now on, or in nothing if null; see {@link #patternValue}. The
+     * weights must be for this board size and line length.
+     */
+    public void usePatterns(PatternWeights weights) {
+        if (weights == patterns) return;
+        if (weights != null && !weights.fits(this)) {
+            throw new IllegalArgumentException("Pattern weights for " + weights.rows + "x" + weights.cols + "x"
+                    + weights.lineLength + " do not fit a " + rows + "x" + cols + "x" + lineLength + " board");
+        }
+        patterns = weights;
+        patternLines = weights == null ? null : new int[3][lineCount];
+        resetPatterns();
+    }
+
+    /** Forgets every line's pattern values and marks them all stale, so the next update looks them up afresh. */
+    private void resetPatterns() {
+        patternSums[1] = 0;
+        patternSums[2] = 0;
+        if (patterns == null) return;
+        Arrays.fill(patternLines[1], 0);
+        Arrays.fill(patternLines[2], 0);
+        for (int line = 0; line < lineCount; line++) staleThreats[line >>> 6] |= 1L << line;
+    }
+
+    /**
+     * Learned value of the board for {@code player} against the other player, in points, as of the last
+     * {@link #updateThreats()}; 0 without {@link #usePatterns pattern weights}.
+     */
+    public int patternValue(int player) {
+        return patternSums[player] - patternSums[3 - player];
+    }
+
+    /** Windows of {@link #lineLength} cells along rows, columns and diagonals, each with its own pattern values. */
+    int patternWindows() {
+        return windowBase[lineCount];
+    }
+
+    /**
+     * Writes the state of every window as seen by {@code player} into {@code out}, in {@link PatternWeights} order:
+     * each cell a base-3 digit, 0 empty, 1 the player's, 2 the other player's, the first cell of the window lowest.
+     */
+    void patternStates(int player, int[] ternary, int[] out) {
+        int mask = (1 << lineLength) - 1;
+        for (int line = 0; line < lineCount; line++) {
+            int low = Long.numberOfTrailingZeros(lineMask[line]);
+            long own = lines[player][line] >>> low, other = lines[3 - player][line] >>> low;
+            for (int k = 0, w = windowBase[line]; w < windowBase[line + 1]; k++, w++) {
+                out[w] = ternary[(int) (own >>> k) & mask] + 2 * ternary[(int) (other >>> k) & mask];
+            }
+        }
+    }
+
+    private void updateThreats(int player, int line, long empty) {
+        long before = threatLines[player][line];
+        long now = threatsOn(lines[player][line], empty);
+        if (now == before) return;
+        threatLines[player][line] = now;
+        byte[] counts = threatCounts[player];
+        for (long changed = before ^ now; changed != 0; changed &= changed - 1) {
+            int bit = Long.numberOfTrailingZeros(changed);
+            int cell = lineStart[line] + bit * lineStep[line];
+            if ((now >>> bit & 1) != 0) {
+                int n = ++counts[cell];
+                if (n == 1) {
+                    threatCells[player]++;
+                    threatColumns[player][cell / rows] |= 1L << (cell % rows);
+                } else if (n == 2) {
+                    comboCells[player]++;
+                }
+            } else {
+                int n = --counts[cell];
+                if (n == 0) {
+                    threatCells[player]--;
+                    threatColumns[player][cell / rows] &= ~(1L << (cell % rows));
+                } else if (n == 1) {
+                    comboCells[player]--;
+                }
+            }
+        }
+    }
+
+    /** Empty bits of a line that would complete a run with {@code own}: windows holding all but one of a run. */
+    private long threatsOn(long own, long empty) {
+        if (Long.bitCount(own) < lineLength - 1) return 0;
+        long threats = 0;
+        for (int gap = 0; gap < lineLength; gap++) {
+            long starts = -1L;
+            for (int j = 0; j < lineLength; j++) {
+                if (j != gap) starts &= own >>> j;
+            }
+            threats |= starts << gap;
+        }
+        return threats & empty;
+    }
+
+    /** Whether the empty {@code cell} would complete a line for {@code player}, as of the last update. */
+    public boolean isThreat(int player, int cell) {
+        return threatCounts[player][cell] != 0;
+    }
+
+    /** Heights of the empty cells in {@code col} that would complete a line for {@code player}, as bits. */
+    public long threatColumn(int player, int col) {
+        return threatColumns[player][col];
+    }
+
+    /** Empty cells that would complete a line for {@code player}, as of the last {@link #updateThreats()}. */
+    public int threatCells(int player) {
+        return threatCells[player];
+    }
+
+    /** Empty cells that would complete two or more lines at once for {@code player}, setting up a combo. */
+    public int comboCells(int player) {
+        return comboCells[player];
+    }
+
+    /** Whether {@code pieces} holds a run of {@link #lineLength} adjacent bits. */
+    boolean hasRun(long pieces) {
+        for (int shift : runShifts) {
+            pieces &= pieces >>> shift;
+        }
+        return pieces != 0;
+    }
+
+    /**
+     * Wipes every row, column and diagonal that picked up a piece since the last pass and now holds a run of
+     * {@link #lineLength} pieces of one player, and returns how many distinct lines were wiped. A line is wiped whole,
+     * whoever owns the other cells on it.
+     */
+    public int clearLines() {
+        long[] p1 = lines[1], p2 = lines[2];
+        int linesFound = 0;
+        for (int w = 0; w < dirty.length; w++) {
+            for (long bits = dirty[w]; bits != 0; bits &= bits - 1) {
+                int line = (w << 6) | Long.numberOfTrailingZeros(bits);
+                if (hasRun(p1[line]) || hasRun(p2[line])) {
+                    hits[w] |= bits & -bits;
+                    linesFound++;
+                }
+            }
+            dirty[w] = 0;
+        }
+
+        clearedRows = 0;
+        clearedCols = 0;
+        resetCleared();
+        if (linesFound == 0) return 0;
+
+        for (int w = 0; w < hits.length; w++) {
+            for (long bits = hits[w]; bits != 0; bits &= bits - 1) {
+                int line = (w << 6) | Long.numberOfTrailingZeros(bits);
+                if (line < rows) clearedRows |= 1L << (rows - 1 - line);
+                else if (line < rows + cols) clearedCols |= 1L << (line - rows);
+                wipe(line);
+            }
+            hits[w] = 0;
+        }
+        return linesFound;
+    }
+
+    /** Removes every piece on {@code line}, recording it in {@link #cleared}. */
+    private int wipe(int line) {
+        int removed = 0;
+        for (long occ = lines[1][line] | lines[2][line]; occ != 0; occ &= occ - 1) {
+            int cell = lineStart[line] + Long.numberOfTrailingZeros(occ) * lineStep[line];
+            int col = cellLines[cell * 4 + 1] - rows;
+            if (recording) save(col);
+            remove(cell);
+            cleared[cell >>> 6] |= 1L << cell;
+            unsettledColumns |= 1L << col;
+            heights[col] = Long.numberOfTrailingZeros(~occupied(col));
+            removed++;
+        }
+        clearedCount += removed;
+        return removed;
+    }
+
+    private void resetCleared() {
+        Arrays.fill(cleared, 0);
+        clearedCount = 0;
+    }
+
+    /**
+     * Runs the whole cascade left by the last drop or removal: clears lines, lets the rest fall and repeats until
+     * nothing clears, recording every round in {@code out}. Each round after the first only looks at lines that
+     * pieces fell onto.
+     */
+    public Cascade resolve(Cascade out) {
+        out.clear();
+        for (int linesCleared; (linesCleared = clearLines()) > 0; ) {
+            out.addRound(linesCleared, clearedCount);
+            applyGravity();
+        }
+        return out;
+    }
+
+    /** Whether a piece of {@code player} on {@code cell} would complete a line. */
+    boolean completesLine(int player, int cell) {
+        long[] own = lines[player];
+        for (int k = cell * 4, end = k + 4; k < end; k++) {
+            if (hasRun(own[cellLines[k]] | 1L << cellBits[k])) return true;
+        }
+        return false;
+    }
+
+    /** Whether a piece of {@code player} placed at ({@code row}, {@code col}) would complete a line. */
+    public boolean completesLine(int player, int row, int col) {
+        return completesLine(player, cell(row, col));
+    }
+
+    /** First column where dropping a piece of {@code player} completes a line, or -1. */
+    public int findWinningMove(int player) {
+        for (int c = 0; c < cols; c++) {
+            if (heights[c] < rows && completesLine(player, c * rows + heights[c])) return c;
+        }
+        return -1;
+    }
+
+    /**
+     * The remove methods take pieces off without letting the rest fall and return how many were removed;
+     * {@link #cleared} holds the emptied cells until the next clear.
+     */
+    public int removeCell(int row, int col) {
+        resetCleared();
+        if (get(row, col) == 0) return 0;
+        int cell = cell(row, col);
+        if (recording) save(col);
+        remove(cell);
+        cleared[cell >>> 6] |= 1L << cell;
+        clearedCount = 1;
+        unsettledColumns |= 1L << col;
+        heights[col] = Long.numberOfTrailingZeros(~occupied(col));
+        return 1;
+    }
+
+    public int removeRow(int row) {
+        resetCleared();
+        return wipe(rows - 1 - row);
+    }
+
+    public int removeColumn(int col) {
+        resetCleared();
+        return wipe(rows + col);
+    }
+
+    /** Lets pieces fall in every column that lost a piece since the last call. */
+    public void applyGravity() {
+        for (long unsettled = unsettledColumns; unsettled != 0; unsettled &= unsettled - 1) {
+            compactColumn(Long.numberOfTrailingZeros(unsettled));
+        }
+        unsettledColumns = 0;
+    }
+
+    /** Lets every piece in {@code col} fall to the lowest free cell, keeping their order. */
+    void compactColumn(int col) {
+        long p1 = lines[1][rows + col];
+        long p2 = lines[2][rows + col];
+        long occ = p1 | p2;
+        int h = Long.bitCount(occ);
+        heights[col] = h;
+        if ((occ & (occ + 1)) == 0) return;
+
+        long n1 = 0;
+        int filled = 0;
+        for (int shift = 0; shift < rows; shift += 8) {
+            int o = (int) (occ >>> shift) & 0xFF;
+            if (o != 0) {
+                n1 |= (long) (GRAVITY[(o << 8) | ((int) (p1 >>> shift) & 0xFF)] & 0xFF) << filled;
+                filled += Integer.bitCount(o);
+            }
+        }
+        long n2 = ((1L << h) - 1) & ~n1;
+
+        for (long changed = (p1 ^ n1) | (p2 ^ n2); changed != 0; changed &= changed - 1) {
+            int bit = Long.numberOfTrailingZeros(changed);
+            int cell = col * rows + bit;
+            remove(cell);
+            if ((n1 >>> bit & 1) != 0) add(cell, 1);
+            else if ((n2 >>> bit & 1) != 0) add(cell, 2);
+        }
+    }
+
+    /**
+     * Drops a piece of {@code player} into {@code col} and resolves the cascade it sets off, logging enough to take it
+     * all back with {@link #unmake()}. Returns the number of lines cleared, with the rounds in {@link #cascade}, or -1
+     * if the column is full; nothing is logged then. The position must be at rest, as it is between turns.
+     */
+    public int make(int col, int player) {
+        if (dropRow(col) == -1) return -1;
+        beginMove();
+        save(col);
+        add(col * rows + heights[col], player);
+        heights[col]++;
+        resolve(cascade);
+        endMove();
+        return cascade.combo();
+    }
+
+    /**
+     * Fires a bomb at ({@code row}, {@code col}), or a bullet along that row or, if {@code alongRow} is false, that
+     * column, then lets the pieces fall and resolves the cascade, logged for {@link #unmake()} like a drop. Returns the
+     * number of lines cleared, or -1 if a bomb was aimed at an empty cell; nothing is logged then.
+     */
+    public int makeShot(PowerUp type, boolean alongRow, int row, int col) {
+        if (type == PowerUp.BOMB && get(row, col) == 0) return -1;
+        beginMove();
+        if (type == PowerUp.BOMB) removeCell(row, col);
+        else if (alongRow) removeRow(row);
+        else removeColumn(col);
+        applyGravity();
+        resolve(cascade);
+        endMove();
+        return cascade.combo();
+    }
+
+    void beginMove() {
+        recording = true;
+        savedColumns = 0;
+    }
+
+    void endMove() {
+        recording = false;
+        push(Long.bitCount(savedColumns));
+    }
+
+    private void save(int col) {
+        if ((savedColumns >>> col & 1) != 0) return;
+        savedColumns |= 1L << col;
+        push(lines[1][rows + col]);
+        push(lines[2][rows + col]);
+        push(col);
+    }
+
+    private void push(long value) {
+        if (undoSize == undo.length) undo = Arrays.copyOf(undo, undoSize * 2);
+        undo[undoSize++] = value;
+    }
+
+    /** Takes back the last {@link #make} or {@link #makeShot}, cascade included. */
+    public void unmake() {
+        for (int n = (int) undo[--undoSize]; n > 0; n--) {
+            int col = (int) undo[--undoSize];
+            long p2 = undo[--undoSize];
+            long p1 = undo[--undoSize];
+            restoreColumn(col, p1, p2);
+        }
+    }
+
+    /** Whether there is a move left for {@link #unmake()} to take back. */
+    public boolean canUnmake() {
+        return undoSize > 0;
+    }
+
+    private void restoreColumn(int col, long p1, long p2) {
+        long c1 = lines[1][rows + col];
+        long c2 = lines[2][rows + col];
+        for (long changed = (c1 ^ p1) | (c2 ^ p2); changed != 0; changed &= changed - 1) {
+            int bit = Long.numberOfTrailingZeros(changed);
+            int cell = col * rows + bit;
+            remove(cell);
+            if ((p1 >>> bit & 1) != 0) place(cell, 1);
+            else if ((p2 >>> bit & 1) != 0) place(cell, 2);
+        }
+        heights[col] = Long.numberOfTrailingZeros(~(p1 | p2));
+    }
+}
@@ -0,0 +1,3 @@
+package com.fourstack.game.engine;
+
+public enum PowerUp { NONE, BULLET, STAR, EIGHT, COIN, BOMB }
@@ -0,0 +1,521 @@
+package com.fourstack.game.engine;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Negamax alpha-beta search over drops, deepened one ply at a time until the time budget runs out. Moves are played
+ * on the live {@link Position} with make/unmake, cascades and scoring included, and the position is handed back
+ * exactly as it was found. Power-ups and clocks are left out: a node is the board, whose turn it is and both scores.
+ * At the horizon the search goes on through drops that clear lines, so a setup whose cascade lands just past the last
+ * ply still counts for the points it scores.
+ * <p>
+ * With {@link #threads} above one the search runs Lazy SMP style: helper threads search copies of the position with
+ * the same budget, half of them one ply ahead, and feed what they find to this thread through the shared
+ * {@link #table}. The move played is always the one this thread settles on.
+ */
+public final class Search {
+    /** Score of a won game; wins found sooner score higher. */
+    public static final int WIN = 1_000_000;
+    static final int INFINITY = WIN + 1;
+    static final int MAX_DEPTH = 64;
+
+    /** Bonus per column in which a player could complete a line with their next drop. */
+    static final int THREAT = 40;
+
+    /** Bonus for holding two threats the opponent cannot both block: two playable at once, or one atop another. */
+    static final int DOUBLE_THREAT = 80;
+
+    /** Bonus per threat not yet playable that sits below every threat of the opponent's in its column. */
+    static final int PENDING_THREAT = 12;
+
+    /**
+     * Bonus per empty cell that would complete two lines at once: both score in one round, as much as two single
+     * clears would, with a turn to spare.
+     */
+    static final int COMBO_THREAT = 100;
+
+    /**
+     * Move ordering classes after the table's move, best first; history scores sit below them and center-first breaks
+     * ties.
+     */
+    static final int WINNING = 1 << 29;
+    static final int BLOCK = 1 << 28;
+    static final int CLEAR = 1 << 27;
+    static final int KILLER = 1 << 26;
+    static final int HISTORY_MAX = KILLER - 2;
+
+    /** Deepest iteration to run; the time budget usually ends the search well before. */
+    public int depthLimit = MAX_DEPTH;
+
+    /**
+     * Plies of scoring drops searched past the horizon, so that a setup whose cascade lands just beyond the last ply
+     * is valued by the points it actually scores.
+     */
+    public int quiescence = 4;
+
+    /** Nodes each thread may visit per search before it stops as if out of time. */
+    public long nodeLimit = Long.MAX_VALUE;
+
+    /**
+     * Evaluation noise: every leaf value is moved by up to this many points either way, by an amount fixed for each
+     * position and {@link #noiseSeed}. Table entries are keyed by the seed too, so noisy and exact values never mix.
+     */
+    public int temperature;
+    public long noiseSeed;
+
+    /** Learned pattern values added to every leaf, or null; ignored on boards they were not trained for. */
+    public PatternWeights patterns;
+
+    /** Shared between searches so later moves start from what earlier ones learned. */
+    public TranspositionTable table;
+
+    /** Threads searching each move, this one included. */
+    public int threads = 1;
+
+    private volatile Search[] helpers = new Search[0];
+    private volatile ExecutorService pool;
+    private Future<?>[] running = new Future<?>[0];
+
+    private Position position;
+    private int scoreGoal;
+    private int[] order;
+    private int[][] moves;
+    private int[][] moveScores;
+    private final int[][] killers = new int[MAX_DEPTH + 1][2];
+    private int[] history;
+    private long deadline;
+    private boolean aborted;
+    private volatile boolean stopRequested;
+
+    /**
+     * Results of the last {@link #think}: depth of the last finished iteration, its value and the nodes visited by
+     * every thread.
+     */
+    public int depth;
+    public int value;
+    public long nodes;
+
+    /** Megabytes of transposition table a search gets when it is not given one. */
+    static final int TABLE_MEGABYTES = 16;
+
+    public Search() {
+        this(new TranspositionTable(TABLE_MEGABYTES));
+    }
+
+    /** A search that shares {@code table} with others, e.g. on other threads. */
+    Search(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Best column for {@code player} to drop into, or -1 if every column is full. The search stops at the end of
+     * {@code budgetNanos} or {@link #nodeLimit}, or earlier if the outcome is settled or the depth cap is reached.
+     */
+    public int think(Position position, int player, int myScore, int opponentScore, int scoreGoal, long budgetNanos) {
+        table.newSearch();
+        return thinkOn(position, player, myScore, opponentScore, scoreGoal, budgetNanos);
+    }
+
+    /**
+     * {@link #think} without starting a new table generation, for the many small searches that make up one decision,
+     * possibly on several threads at once; whoever runs them calls {@link TranspositionTable#newSearch()} once first.
+     */
+    int thinkOn(Position position, int player, int myScore, int opponentScore, int scoreGoal, long budgetNanos) {
+        startHelpers(position, player, myScore, opponentScore, scoreGoal, budgetNanos);
+        try {
+            return deepen(position, player, myScore, opponentScore, scoreGoal, budgetNanos, 1);
+        } finally {
+            nodes += stopHelpers();
+        }
+    }
+
+    private int deepen(Position position, int player, int myScore, int opponentScore, int scoreGoal, long budgetNanos,
+            int startDepth) {
+        this.position = position;
+        this.scoreGoal = scoreGoal;
+        position.usePatterns(patterns != null && patterns.fits(position) ? patterns : null);
+        deadline = System.nanoTime() + budgetNanos;
+        aborted = false;
+        nodes = 0;
+        depth = 0;
+        value = 0;
+
+        int cols = position.cols;
+        if (order == null || order.length != cols) {
+            order = centerFirst(cols);
+            moves = new int[MAX_DEPTH + 1][cols];
+            moveScores = new int[MAX_DEPTH + 1][cols];
+        }
+        if (history == null || history.length != 3 * position.rows * cols) {
+            history = new int[3 * position.rows * cols];
+        }
+        for (int i = 0; i < history.length; i++) history[i] >>= 2;
+        for (int[] k : killers) {
+            k[0] = -1;
+            k[1] = -1;
+        }
+        int[] rootMoves = new int[cols];
+        int rootCount = 0;
+        for (int col : order) {
+            if (position.dropRow(col) != -1) rootMoves[rootCount++] = col;
+        }
+        if (rootCount == 0) return -1;
+
+        int best = rootMoves[0];
+        for (int d = startDepth; d <= Math.min(depthLimit, MAX_DEPTH); d++) {
+            int alpha = -INFINITY, iterationBest = -1;
+            for (int i = 0; i < rootCount; i++) {
+                int col = rootMoves[i];
+                int v;
+                int lines = position.make(col, player);
+                int mine = myScore + (lines > 0 ? position.cascade.points() : 0);
+                if (mine >= scoreGoal) v = WIN;
+                else if (position.get(0, col) != 0) v = -WIN;
+                else v = -negamax(3 - player, opponentScore, mine, d - 1, -INFINITY, -alpha, 1);
+                position.unmake();
+                if (aborted) break;
+                if (v > alpha) {
+                    alpha = v;
+                    iterationBest = i;
+                }
+            }
+            if (aborted) break;
+
+            // Search the best move first next time round.
+            best = rootMoves[iterationBest];
+            System.arraycopy(rootMoves, 0, rootMoves, 1, iterationBest);
+            rootMoves[0] = best;
+            depth = d;
+            value = alpha;
+            if (Math.abs(alpha) >= WIN - MAX_DEPTH) break;
+        }
+        this.position = null;
+        return best;
+    }
+
+    /**
+     * Makes a search running on another thread return as soon as it next checks the clock. Searches keep stopping
+     * straight away until {@link #resume()}.
+     */
+    public void stop() {
+        stopRequested = true;
+        for (Search helper : helpers) helper.stop();
+    }
+
+    public void resume() {
+        stopRequested = false;
+    }
+
+    /** Ends the helper threads. A later search with {@link #threads} above one starts new ones. */
+    public void shutdown() {
+        stop();
+        ExecutorService pool = this.pool;
+        this.pool = null;
+        if (pool == null) return;
+        // Tasks that never started are cancelled, so a search waiting on them gives up instead of hanging.
+        for (Runnable task : pool.shutdownNow()) {
+            if (task instanceof Future) ((Future<?>) task).cancel(false);
+        }
+    }
+
+    /**
+     * Sets {@code threads - 1} helpers searching copies of {@code position}. Odd helpers start one ply deeper than
+     * this thread, so the threads are not all working on the same iteration.
+     */
+    private void startHelpers(Position position, int player, int myScore, int opponentScore, int scoreGoal,
+            long budgetNanos) {
+        int count = Math.max(threads, 1) - 1;
+        if (count == 0) return;
+        ExecutorService pool = this.pool;
+        if (pool == null || helpers.length != count) {
+            if (pool != null) pool.shutdownNow();
+            pool = Executors.newFixedThreadPool(count, runnable -> {
+                Thread thread = new Thread(runnable, "fourstack-search");
+                thread.setDaemon(true);
+                return thread;
+            });
+            Search[] created = new Search[count];
+            for (int i = 0; i < count; i++) created[i] = new Search(table);
+            helpers = created;
+            running = new Future<?>[count];
+            this.pool = pool;
+        }
+        for (int i = 0; i < count; i++) {
+            Search helper = helpers[i];
+            helper.table = table;
+            helper.depthLimit = depthLimit;
+            helper.nodeLimit = nodeLimit;
+            helper.quiescence = quiescence;
+            helper.temperature = temperature;
+            helper.noiseSeed = noiseSeed;
+            helper.patterns = patterns;
+            helper.resume();
+            // The copy is taken here, before this thread starts making moves on the original.
+            Position copy = new Position(position);
+            int startDepth = 1 + (i + 1) % 2;
+            try {
+                running[i] = pool.submit(() ->
+                        helper.deepen(copy, player, myScore, opponentScore, scoreGoal, budgetNanos, startDepth));
+            } catch (RejectedExecutionException e) {
+                // shutdown() from another thread; this thread searches on alone.
+                break;
+            }
+        }
+        // A stop() that came in before the helpers were resumed still has to reach them.
+        if (stopRequested) stop();
+    }
+
+    /** Stops the helpers, waits for them and returns the nodes they visited. */
+    private long stopHelpers() {
+        Search[] helpers = this.helpers;
+        for (Search helper : helpers) helper.stop();
+        long helperNodes = 0;
+        boolean interrupted = false;
+        for (int i = 0; i < running.length; i++) {
+            if (running[i] == null) continue;
+            // Wait even if interrupted: a helper still running could otherwise be handed a second search.
+            while (true) {
+                try {
+                    running[i].get();
+                    helperNodes += helpers[i].nodes;
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (CancellationException e) {
+                    break;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Search helper failed", e.getCause());
+                }
+            }
+            running[i] = null;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return helperNodes;
+    }
+
+    private int negamax(int player, int myScore, int opponentScore, int depth, int alpha, int beta, int ply) {
+        if (++nodes >= nodeLimit || (nodes & 1023) == 0 && (System.nanoTime() > deadline || stopRequested)) {
+            aborted = true;
+        }
+        if (aborted) return 0;
+        if (depth == 0) return quiesce(player, myScore, opponentScore, quiescence, alpha, beta, ply);
+
+        long key = key(player, myScore, opponentScore);
+        long entry = table.probe(key);
+        int hashMove = -1;
+        if (entry != 0) {
+            hashMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int v = fromTable(TranspositionTable.value(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && v >= beta)
+                        || (bound == TranspositionTable.UPPER && v <= alpha)) {
+                    return v;
+                }
+            }
+        }
+
+        int alphaAtStart = alpha;
+        int best = -INFINITY, bestMove = -1;
+        // The table's move is tried before the rest are even generated; it often cuts off on its own.
+        int[] list = moves[ply];
+        int count = -1;
+        boolean hashMoveOpen = hashMove >= 0 && position.dropRow(hashMove) != -1;
+        for (int i = hashMoveOpen ? -1 : 0; ; i++) {
+            int col;
+            if (i < 0) {
+                col = hashMove;
+            } else {
+                if (count < 0) count = orderMoves(player, myScore, ply, hashMove);
+                if (i >= count) break;
+                col = list[i];
+            }
+            int cell = position.cell(position.dropRow(col), col);
+            int lines = position.make(col, player);
+            int mine = myScore + (lines > 0 ? position.cascade.points() : 0);
+            int v;
+            if (mine >= scoreGoal) v = WIN - ply;
+            else if (position.get(0, col) != 0) v = -(WIN - ply);
+            else v = -negamax(3 - player, opponentScore, mine, depth - 1, -beta, -alpha, ply + 1);
+            position.unmake();
+            if (aborted) return 0;
+
+            if (v > best) {
+                best = v;
+                bestMove = col;
+                if (v > alpha) {
+                    alpha = v;
+                    if (alpha >= beta) {
+                        if (lines == 0) rememberCutoff(player, col, cell, depth, ply);
+                        break;
+                    }
+                }
+            }
+        }
+        if (best == -INFINITY) return evaluate(player, myScore, opponentScore);
+
+        int bound = best >= beta ? TranspositionTable.LOWER
+                : best > alphaAtStart ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+        table.store(key, depth, bound, toTable(best, ply), bestMove);
+        return best;
+    }
+
+    /**
+     * Value at the horizon: the static value, unless a drop that clears a line does better for the player to move.
+     * Only clearing drops are tried, each played through its whole cascade, for up to {@code plies} plies.
+     */
+    private int quiesce(int player, int myScore, int opponentScore, int plies, int alpha, int beta, int ply) {
+        int best = evaluate(player, myScore, opponentScore);
+        if (plies == 0 || best >= beta || ply >= MAX_DEPTH) return best;
+        if (best > alpha) alpha = best;
+        // Read before the first drop: deeper nodes bring the threat tables up to date with other positions.
+        long clearing = 0;
+        for (int col = 0; col < position.cols; col++) {
+            int h = position.heights[col];
+            if (h < position.rows && (position.threatColumn(player, col) >>> h & 1) != 0) clearing |= 1L << col;
+        }
+        for (int col : order) {
+            if ((clearing >>> col & 1) == 0) continue;
+            if (++nodes >= nodeLimit || (nodes & 1023) == 0 && (System.nanoTime() > deadline || stopRequested)) {
+                aborted = true;
+            }
+            if (aborted) return 0;
+            position.make(col, player);
+            int mine = myScore + position.cascade.points();
+            int v;
+            if (mine >= scoreGoal) v = WIN - ply;
+            else if (position.get(0, col) != 0) v = -(WIN - ply);
+            else v = -quiesce(3 - player, opponentScore, mine, plies - 1, -beta, -alpha, ply + 1);
+            position.unmake();
+            if (aborted) return 0;
+            if (v > best) {
+                best = v;
+                if (v > alpha) {
+                    alpha = v;
+                    if (alpha >= beta) break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fills {@code moves[ply]} with the open columns other than the table's move, best first: drops that win the game
+     * or block a line, drops that clear a line, killer moves, then by history score, with ties going center-first.
+     */
+    private int orderMoves(int player, int myScore, int ply, int hashMove) {
+        int[] list = moves[ply];
+        int[] scores = moveScores[ply];
+        int[] killer = killers[ply];
+        int cells = position.rows * position.cols;
+        int count = 0;
+        for (int col : order) {
+            int row = position.dropRow(col);
+            if (row == -1 || col == hashMove) continue;
+            int score;
+            boolean clears = position.completesLine(player, row, col);
+            if (clears && myScore + Cascade.roundPoints(1) >= scoreGoal) score = WINNING;
+            else if (position.completesLine(3 - player, row, col)) score = BLOCK;
+            else if (clears) score = CLEAR;
+            else if (col == killer[0]) score = KILLER;
+            else if (col == killer[1]) score = KILLER - 1;
+            else score = Math.min(history[player * cells + position.cell(row, col)], HISTORY_MAX);
+
+            // Insertion sort, keeping the center-first order among equal scores.
+            int i = count++;
+            while (i > 0 && scores[i - 1] < score) {
+                list[i] = list[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+            list[i] = col;
+            scores[i] = score;
+        }
+        return count;
+    }
+
+    /** A quiet drop caused a cutoff: make it a killer at this ply and raise its history score. */
+    private void rememberCutoff(int player, int col, int cell, int depth, int ply) {
+        int[] killer = killers[ply];
+        if (killer[0] != col) {
+            killer[1] = killer[0];
+            killer[0] = col;
+        }
+        int i = player * position.rows * position.cols + cell;
+        history[i] = Math.min(history[i] + depth * depth, HISTORY_MAX);
+    }
+
+    /** Table key of a node: the board, whose turn it is and both scores, which the value depends on. */
+    private long key(int player, int myScore, int opponentScore) {
+        long scores = (myScore * 0x9E3779B97F4A7C15L) ^ Long.rotateLeft(opponentScore * 0xC2B2AE3D27D4EB4FL, 32);
+        return position.hash() ^ scores ^ (player == 2 ? Position.SIDE_KEY : 0) ^ noiseSeed;
+    }
+
+    /** Wins are stored as distance from the node rather than from the root, so they stay right at any ply. */
+    private static int toTable(int v, int ply) {
+        if (v >= WIN - MAX_DEPTH) return v + ply;
+        if (v <= -(WIN - MAX_DEPTH)) return v - ply;
+        return v;
+    }
+
+    private static int fromTable(int v, int ply) {
+        if (v >= WIN - MAX_DEPTH) return v - ply;
+        if (v <= -(WIN - MAX_DEPTH)) return v + ply;
+        return v;
+    }
+
+    /** Static value for the player to move, see {@link #value}, plus any {@link #temperature} noise. */
+    int evaluate(int player, int myScore, int opponentScore) {
+        int value = value(position, player, myScore, opponentScore);
+        if (temperature == 0) return value;
+        long mix = (position.hash() ^ noiseSeed ^ (player == 2 ? Position.SIDE_KEY : 0)) * 0x9E3779B97F4A7C15L;
+        return value + (int) ((mix >>> 32) % (2 * temperature + 1)) - temperature;
+    }
+
+    /**
+     * Static value of {@code position} for {@code player}: the score difference plus the difference in threats and
+     * the position's {@link Position#patternValue pattern value}, all read from tables the position keeps
+     * incrementally so it stays cheap at every leaf.
+     */
+    static int value(Position position, int player, int myScore, int opponentScore) {
+        position.updateThreats();
+        return myScore - opponentScore + threats(position, player) - threats(position, 3 - player)
+                + position.patternValue(player);
+    }
+
+    private static int threats(Position position, int player) {
+        int immediate = 0, pending = 0;
+        boolean stacked = false;
+        for (int c = 0; c < position.cols; c++) {
+            int h = position.heights[c];
+            if (h >= position.rows) continue;
+            long own = position.threatColumn(player, c);
+            if (own == 0) continue;
+            long other = position.threatColumn(3 - player, c);
+            if ((own >>> h & 1) != 0) immediate++;
+            if ((own & own >>> 1) != 0) stacked = true;
+            // Threats under the opponent's lowest one in the column come into play first.
+            long below = other == 0 ? -1L : Long.lowestOneBit(other) - 1;
+            pending += Long.bitCount(own & below & ~(1L << h));
+        }
+        int value = THREAT * immediate + PENDING_THREAT * pending + COMBO_THREAT * position.comboCells(player);
+        if (stacked || immediate >= 2) value += DOUBLE_THREAT;
+        return value;
+    }
+
+    static int[] centerFirst(int cols) {
+        int[] order = new int[cols];
+        for (int i = 0; i < cols; i++) {
+            // (cols - 1) / 2, then alternate right and left of it.
+            int offset = (i + 1) / 2;
+            order[i] = (cols - 1) / 2 + ((i & 1) == 1 ? offset : -offset);
+        }
+        return order;
+    }
+}
@@ -0,0 +1,74 @@
+package com.fourstack.game.engine;
+
+/**
+ * Measures how {@link Search} scales with threads. Every thread count from 1 up searches the same midgame positions
+ * twice: once with the same time budget, for the depth reached and nodes per second, and once to the same depth, for
+ * the time it takes. The speedup over one thread is the ratio of those times; under Lazy SMP the helpers' nodes go
+ * up almost linearly whatever they are worth, so nodes per second alone says little.
+ * <p>
+ * Arguments, all optional: highest thread count (default: available processors), milliseconds per position (default
+ * 1000), number of positions (default 20), depth to search each position to (default 12).
+ */
+public final class SearchBenchmark {
+    private SearchBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 12;
+
+        Game[] positions = positions(count);
+        System.out.printf("%d positions, %d ms each, to depth %d, %d processors%n", count, millis, depth,
+                Runtime.getRuntime().availableProcessors());
+        System.out.println("threads  avg depth  nodes/s      ms to depth  speedup");
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            Search search = new Search();
+            search.threads = threads;
+            long nodes = 0, depths = 0, nanos = 0;
+            for (Game game : positions) {
+                nanos += think(search, game, millis * 1_000_000L);
+                nodes += search.nodes;
+                depths += search.depth;
+            }
+            search.depthLimit = depth;
+            long toDepth = 0;
+            for (Game game : positions) toDepth += think(search, game, Long.MAX_VALUE / 4);
+            search.shutdown();
+            if (threads == 1) baseline = toDepth;
+            System.out.printf("%7d  %9.2f  %11.0f  %11.0f  %6.2fx%n", threads, (double) depths / positions.length,
+                    nodes / (nanos / 1e9), toDepth / 1e6 / positions.length, baseline / toDepth);
+        }
+    }
+
+    /** Searches {@code game} from an empty table within {@code budgetNanos} and returns the nanoseconds it took. */
+    private static long think(Search search, Game game, long budgetNanos) {
+        int me = game.currentPlayer;
+        int myScore = (me == 1) ? game.score : game.aiScore;
+        int opponentScore = (me == 1) ? game.aiScore : game.score;
+        search.table.clear();
+        long start = System.nanoTime();
+        search.think(game.position, me, myScore, opponentScore, game.scoreGoal, budgetNanos);
+        return System.nanoTime() - start;
+    }
+
+    /** Positions 10 to 19 drops into seeded games between two EASY players. */
+    private static Game[] positions(int count) {
+        Ai ai = new Ai();
+        Game[] games = new Game[count];
+        for (int i = 0, seed = 0; i < count; seed++) {
+            Game game = new Game(6, 7);
+            game.start(seed);
+            game.isTwoPlayer = true;
+            game.currentDifficulty = Difficulty.EASY;
+            for (int k = 0; k < 10 + seed % 10 && !game.isOver(); k++) {
+                int col = ai.chooseColumn(game);
+                if (col != -1) game.drop(col);
+            }
+            if (!game.isOver()) games[i++] = game;
+        }
+        return games;
+    }
+}
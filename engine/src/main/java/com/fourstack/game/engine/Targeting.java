@@ -0,0 +1,189 @@
+package com.fourstack.game.engine;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Scores candidate moves of every kind for the player to move: drops, bomb cells and bullet rows and columns. Each is
+ * played through its whole cascade on a copy of the board and the reply is searched to a fixed depth, with the
+ * transposition table of the {@link Search} it was made for. Candidates do not depend on each other, so they are dealt
+ * out over {@link #threads} threads, each with its own board and search.
+ * <p>
+ * A candidate is packed as {@code kind << 16 | index}, where the index is a column, a {@link Position#cell} or a row.
+ */
+public final class Targeting {
+    public static final int DROP = 0;
+    public static final int BOMB = 1;
+    public static final int ROW = 2;
+    public static final int COLUMN = 3;
+
+    /** Plies searched per candidate, the candidate itself included. */
+    public int depth = 4;
+
+    /** Threads scoring candidates, this one included. */
+    public int threads = 1;
+
+    private final Search owner;
+    private volatile Search[] searches = new Search[0];
+    private volatile ExecutorService pool;
+    private int poolSize;
+    private volatile boolean stopRequested;
+
+    public Targeting(Search owner) {
+        this.owner = owner;
+    }
+
+    public static int candidate(int kind, int index) {
+        return kind << 16 | index;
+    }
+
+    public static int kind(int candidate) {
+        return candidate >>> 16;
+    }
+
+    public static int index(int candidate) {
+        return candidate & 0xFFFF;
+    }
+
+    /**
+     * Fills {@code values} with the value of each of the first {@code count} {@code candidates} for the player to move
+     * in {@code game}, from that player's side. Drops into a full column and bombs aimed at an empty cell score
+     * {@code -Search.INFINITY}. Scoring takes about {@code budgetNanos}: each thread shares what is left of it out
+     * evenly over the candidates it has still to score.
+     */
+    public void evaluate(Game game, int[] candidates, int count, int[] values, long budgetNanos) {
+        // One generation for the whole decision, however many searches it takes.
+        owner.table.newSearch();
+        long deadline = System.nanoTime() + budgetNanos;
+        int workers = Math.max(1, Math.min(threads, count));
+        if (searches.length < workers) {
+            Search[] grown = new Search[workers];
+            for (int i = 0; i < workers; i++) {
+                grown[i] = i < searches.length ? searches[i] : new Search(owner.table);
+            }
+            searches = grown;
+        }
+        Search[] searches = this.searches;
+        Future<?>[] running = new Future<?>[workers];
+        ExecutorService pool = workers > 1 ? pool(threads - 1) : null;
+        for (int w = 1; w < workers; w++) {
+            int worker = w;
+            Position copy = new Position(game.position);
+            try {
+                running[w] = pool.submit(() -> evaluate(game, copy, searches[worker], worker, workers, candidates,
+                        count, values, deadline));
+            } catch (RejectedExecutionException e) {
+                // shutdown() from another thread: score this worker's share below instead.
+                running[w] = null;
+            }
+        }
+        evaluate(game, new Position(game.position), searches[0], 0, workers, candidates, count, values, deadline);
+        for (int w = 1; w < workers; w++) {
+            if (running[w] == null || !join(running[w])) {
+                evaluate(game, new Position(game.position), searches[0], w, workers, candidates, count, values,
+                        deadline);
+            }
+        }
+    }
+
+    /** Scores candidates {@code first}, {@code first + step} and so on, by {@code deadline}. */
+    private void evaluate(Game game, Position position, Search search, int first, int step, int[] candidates,
+            int count, int[] values, long deadline) {
+        int me = game.currentPlayer;
+        int myScore = (me == 1) ? game.score : game.aiScore;
+        int opponentScore = (me == 1) ? game.aiScore : game.score;
+        search.table = owner.table;
+        search.patterns = owner.patterns;
+        search.depthLimit = Math.max(depth - 1, 1);
+        for (int i = first; i < count; i += step) {
+            int kind = kind(candidates[i]), index = index(candidates[i]);
+            int lines;
+            if (kind == DROP) lines = position.make(index, me);
+            else if (kind == BOMB) lines = position.makeShot(PowerUp.BOMB, false, position.rowOf(index),
+                    position.colOf(index));
+            else if (kind == ROW) lines = position.makeShot(PowerUp.BULLET, true, index, 0);
+            else lines = position.makeShot(PowerUp.BULLET, false, 0, index);
+            if (lines == -1) {
+                values[i] = -Search.INFINITY;
+                continue;
+            }
+            int mine = myScore + (lines > 0 ? position.cascade.points() : 0);
+            if (mine >= game.scoreGoal) {
+                values[i] = Search.WIN;
+            } else if (kind == DROP && position.get(0, index) != 0) {
+                values[i] = -Search.WIN;
+            } else if (stopRequested) {
+                values[i] = 0;
+            } else {
+                search.resume();
+                if (stopRequested) search.stop();
+                int left = (count - 1 - i) / step + 1;
+                long budget = Math.max(0, deadline - System.nanoTime()) / left;
+                search.thinkOn(position, 3 - me, opponentScore, mine, game.scoreGoal, budget);
+                // Out of time before even one ply: fall back on the static value.
+                values[i] = search.depth > 0 ? -search.value : -Search.value(position, 3 - me, opponentScore, mine);
+            }
+            position.unmake();
+        }
+    }
+
+    /** Waits for a worker; false if it never ran. */
+    private static boolean join(Future<?> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (CancellationException e) {
+                    return false;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Targeting worker failed", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private ExecutorService pool(int size) {
+        ExecutorService pool = this.pool;
+        if (pool == null || poolSize != size) {
+            if (pool != null) pool.shutdownNow();
+            poolSize = size;
+            pool = Executors.newFixedThreadPool(size, runnable -> {
+                Thread thread = new Thread(runnable, "fourstack-targeting");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.pool = pool;
+        }
+        return pool;
+    }
+
+    /** Makes scoring on other threads finish quickly with rough values. Stays stopped until {@link #resume()}. */
+    public void stop() {
+        stopRequested = true;
+        for (Search search : searches) search.stop();
+    }
+
+    public void resume() {
+        stopRequested = false;
+    }
+
+    public void shutdown() {
+        stop();
+        ExecutorService pool = this.pool;
+        this.pool = null;
+        if (pool == null) return;
+        for (Runnable task : pool.shutdownNow()) {
+            if (task instanceof Future) ((Future<?>) task).cancel(false);
+        }
+    }
+}
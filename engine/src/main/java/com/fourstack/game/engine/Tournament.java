@@ -0,0 +1,311 @@
+package com.fourstack.game.engine;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Plays AI against AI, every player against every other, on a fixed pool with a thread per processor, and reports
+ * Elo with 95% confidence intervals, games per second and think time per move.
+ * <p>
+ * Each seed is played twice with the colors swapped, so both players see the same power-up rolls from both sides. A
+ * game's clocks run a fixed {@code --seconds} per move whatever the machine, so the outcome of a seed does not depend
+ * on how busy the pool is; only time budgets do.
+ * <p>
+ * Arguments: options, then two or more players. A player is a {@link Difficulty}, optionally followed by settings, as
+ * in {@code HARD:ms=100,backend=MONTE_CARLO}. Settings: {@code ms} (think time), {@code backend}, {@code threads}
+ * (HARD's search threads), {@code book} (opening book file), {@code patterns} (pattern weights file),
+ * {@code exploration}, {@code playouts} ({@code light} or {@code random}) and {@code plies} (Monte Carlo playout
+ * cap). Options: {@code --games=} per pairing (default 100), {@code --threads=} (default: available processors),
+ * {@code --seed=} (default 1), {@code --goal=} (default 3000), {@code --board=} rows x cols x line length (default
+ * 6x7x4), {@code --seconds=} per move (default 0.5) and {@code --table=} megabytes of transposition table per AI
+ * (default 16). Every pool thread keeps an AI per player, so the tables take threads x players x that much memory.
+ */
+public final class Tournament {
+    /** Turns after which a game still running counts as a draw. */
+    static final int MAX_TURNS = 1000;
+
+    /** One entrant: the difficulty it plays at and the settings applied to each {@link Ai} made for it. */
+    static final class Player {
+        final String name;
+        final Difficulty difficulty;
+        private final List<Consumer<Ai>> settings = new ArrayList<>();
+
+        /** Parses {@code spec}, reading any book or weights file once; a bad setting fails here, before any game. */
+        Player(String spec) {
+            name = spec;
+            int colon = spec.indexOf(':');
+            difficulty = Difficulty.valueOf(colon == -1 ? spec : spec.substring(0, colon));
+            if (colon == -1) return;
+            for (String setting : spec.substring(colon + 1).split(",")) {
+                int eq = setting.indexOf('=');
+                if (eq == -1) throw new IllegalArgumentException("Setting without a value: " + setting);
+                String key = setting.substring(0, eq), value = setting.substring(eq + 1);
+                settings.add(parse(key, value));
+            }
+        }
+
+        private Consumer<Ai> parse(String key, String value) {
+            switch (key) {
+                case "ms": {
+                    long millis = Long.parseLong(value);
+                    return ai -> ai.thinkTimeMillis = millis;
+                }
+                case "backend": {
+                    Ai.Backend backend = Ai.Backend.valueOf(value);
+                    return ai -> ai.backend = backend;
+                }
+                case "threads": {
+                    int threads = Integer.parseInt(value);
+                    return ai -> ai.threads = threads;
+                }
+                case "exploration": {
+                    double exploration = Double.parseDouble(value);
+                    return ai -> ai.monteCarlo.exploration = exploration;
+                }
+                case "playouts": {
+                    boolean light = value.equals("light");
+                    return ai -> ai.monteCarlo.lightPlayouts = light;
+                }
+                case "plies": {
+                    int plies = Integer.parseInt(value);
+                    return ai -> ai.monteCarlo.maxPlies = plies;
+                }
+                case "book": {
+                    // Lookups only read the mapping, so every AI of the player can share it.
+                    OpeningBook book;
+                    try {
+                        book = OpeningBook.open(Paths.get(value));
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Cannot open book " + value, e);
+                    }
+                    return ai -> ai.book = book;
+                }
+                case "patterns": {
+                    PatternWeights patterns;
+                    try {
+                        patterns = PatternWeights.read(Paths.get(value));
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Cannot read pattern weights " + value, e);
+                    }
+                    return ai -> ai.search.patterns = patterns;
+                }
+                default: throw new IllegalArgumentException("Unknown setting " + key + " in " + name);
+            }
+        }
+
+        /** A new AI with this player's settings and a table of {@code tableMegabytes}, its only one. */
+        Ai create(int tableMegabytes) {
+            Ai ai = new Ai(new TranspositionTable(tableMegabytes));
+            for (Consumer<Ai> setting : settings) setting.accept(ai);
+            return ai;
+        }
+    }
+
+    /** How one game went, for players {@code a} (player 1) and {@code b} (player 2). */
+    static final class Result {
+        final int a;
+        final int b;
+        /** 1 if {@code a} won, 2 if {@code b} did, 0 for a draw. */
+        int winner;
+        final long[] thinkNanos = new long[3];
+        final int[] moves = new int[3];
+
+        Result(int a, int b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    private final Player[] players;
+    private final int rows;
+    private final int cols;
+    private final int lineLength;
+    private final int scoreGoal;
+    private final float secondsPerMove;
+    private final int tableMegabytes;
+    private final ThreadLocal<Ai[]> ais;
+
+    private final int[][] wins;
+    private final int[][] draws;
+    private final long[] thinkNanos;
+    private final long[] moves;
+
+    Tournament(Player[] players, int rows, int cols, int lineLength, int scoreGoal, float secondsPerMove,
+            int tableMegabytes) {
+        this.players = players;
+        this.rows = rows;
+        this.cols = cols;
+        this.lineLength = lineLength;
+        this.scoreGoal = scoreGoal;
+        this.secondsPerMove = secondsPerMove;
+        this.tableMegabytes = tableMegabytes;
+        // Each pool thread keeps one Ai per player, transposition table and all, across the games it plays.
+        ais = ThreadLocal.withInitial(() -> new Ai[players.length]);
+        wins = new int[players.length][players.length];
+        draws = new int[players.length][players.length];
+        thinkNanos = new long[players.length];
+        moves = new long[players.length];
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int games = 100, threads = Runtime.getRuntime().availableProcessors(), scoreGoal = 3000, table = 16;
+        int rows = 6, cols = 7, lineLength = Position.DEFAULT_LINE_LENGTH;
+        long seed = 1;
+        float seconds = 0.5f;
+        List<Player> players = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--games=")) games = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(arg.substring(7));
+            else if (arg.startsWith("--goal=")) scoreGoal = Integer.parseInt(arg.substring(7));
+            else if (arg.startsWith("--seconds=")) seconds = Float.parseFloat(arg.substring(10));
+            else if (arg.startsWith("--table=")) table = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--board=")) {
+                String[] size = arg.substring(8).split("x");
+                rows = Integer.parseInt(size[0]);
+                cols = Integer.parseInt(size[1]);
+                if (size.length > 2) lineLength = Integer.parseInt(size[2]);
+            } else {
+                players.add(new Player(arg));
+            }
+        }
+        if (players.size() < 2) {
+            System.err.println("Usage: Tournament [--games=N] [--threads=N] [--seed=N] [--goal=N] [--board=RxCxL]"
+                    + " [--seconds=F] [--table=MB] <player> <player> [<player>...]");
+            System.exit(2);
+        }
+        Tournament tournament = new Tournament(players.toArray(new Player[0]), rows, cols, lineLength, scoreGoal,
+                seconds, table);
+        tournament.run(games, threads, seed);
+    }
+
+    /** Plays {@code games} games per pairing, half of them with each color, and prints the report. */
+    void run(int games, int threads, long seed) throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "fourstack-tournament");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Result> results = new ExecutorCompletionService<>(pool);
+        int total = 0;
+        for (int i = 0; i < players.length; i++) {
+            for (int j = i + 1; j < players.length; j++) {
+                for (int g = 0; g < games; g++) {
+                    int a = (g & 1) == 0 ? i : j, b = (g & 1) == 0 ? j : i;
+                    long gameSeed = seed + g / 2;
+                    results.submit(() -> play(a, b, gameSeed));
+                    total++;
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int done = 1; done <= total; done++) {
+            record(results.take().get());
+            if (done % 100 == 0 || done == total) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%d/%d games, %.1f games/s%n", done, total, done / seconds);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdownNow();
+        report(total, seconds);
+    }
+
+    Result play(int a, int b, long seed) {
+        Ai[] ais = this.ais.get();
+        if (ais[a] == null) ais[a] = players[a].create(tableMegabytes);
+        if (ais[b] == null) ais[b] = players[b].create(tableMegabytes);
+
+        Game game = new Game(rows, cols, lineLength);
+        game.isTwoPlayer = true;
+        game.scoreGoal = scoreGoal;
+        game.start(seed);
+        Result result = new Result(a, b);
+        for (int turn = 0; turn < MAX_TURNS && !game.isOver(); turn++) {
+            int mover = game.currentPlayer;
+            Player player = players[mover == 1 ? a : b];
+            game.currentDifficulty = player.difficulty;
+            long started = System.nanoTime();
+            int col = ais[mover == 1 ? a : b].move(game);
+            result.thinkNanos[mover] += System.nanoTime() - started;
+            result.moves[mover]++;
+            if (col != -1) game.drop(col);
+            // A turn that neither dropped nor fired would repeat forever; call it a draw.
+            else if (game.currentPlayer == mover && !game.isOver()) break;
+            game.tick(secondsPerMove);
+        }
+        result.winner = game.winner;
+        return result;
+    }
+
+    private void record(Result result) {
+        if (result.winner == 1) wins[result.a][result.b]++;
+        else if (result.winner == 2) wins[result.b][result.a]++;
+        else {
+            draws[result.a][result.b]++;
+            draws[result.b][result.a]++;
+        }
+        thinkNanos[result.a] += result.thinkNanos[1];
+        thinkNanos[result.b] += result.thinkNanos[2];
+        moves[result.a] += result.moves[1];
+        moves[result.b] += result.moves[2];
+    }
+
+    private void report(int total, double seconds) {
+        System.out.printf("%n%d games in %.1f s, %.1f games/s%n%n", total, seconds, total / seconds);
+        int width = "player".length();
+        for (Player player : players) width = Math.max(width, player.name.length());
+        String row = "%-" + width + "s %6s %6s %6s %6s  %-16s %s%n";
+        System.out.printf(row, "player", "games", "won", "drawn", "lost", "Elo vs field", "ms/move");
+        for (int i = 0; i < players.length; i++) {
+            int won = 0, drawn = 0, lost = 0;
+            for (int j = 0; j < players.length; j++) {
+                won += wins[i][j];
+                drawn += draws[i][j];
+                lost += wins[j][i];
+            }
+            System.out.printf(row, players[i].name, won + drawn + lost, won, drawn, lost, elo(won, drawn, lost),
+                    String.format("%.2f", moves[i] == 0 ? 0 : thinkNanos[i] / 1e6 / moves[i]));
+        }
+        System.out.println();
+        for (int i = 0; i < players.length; i++) {
+            for (int j = i + 1; j < players.length; j++) {
+                System.out.printf("%s vs %s: +%d =%d -%d, Elo %s%n", players[i].name, players[j].name, wins[i][j],
+                        draws[i][j], wins[j][i], elo(wins[i][j], draws[i][j], wins[j][i]));
+            }
+        }
+    }
+
+    /**
+     * Elo difference the results imply, with the half-width of its 95% confidence interval from the spread of the
+     * per-game scores. A clean sweep only gives a bound.
+     */
+    static String elo(int won, int drawn, int lost) {
+        int n = won + drawn + lost;
+        if (n == 0) return "-";
+        double score = (won + 0.5 * drawn) / n;
+        if (won == n) return ">" + Math.round(eloOf(1 - 0.5 / n));
+        if (lost == n) return "<" + Math.round(eloOf(0.5 / n));
+        double variance = (won * square(1 - score) + drawn * square(0.5 - score) + lost * square(score)) / n;
+        double margin = 1.96 * Math.sqrt(variance / n);
+        double low = eloOf(Math.max(score - margin, 0.5 / n)), high = eloOf(Math.min(score + margin, 1 - 0.5 / n));
+        return String.format("%+d +/- %d", Math.round(eloOf(score)), Math.round((high - low) / 2));
+    }
+
+    private static double eloOf(double score) {
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+}
@@ -0,0 +1,113 @@
+package com.fourstack.game.engine;
+
+/**
+ * Search results by position hash, in one preallocated {@code long[]}. Every entry is two longs: the entry's data and
+ * the key XORed with that data, so a torn write from another thread reads back as a miss rather than as somebody
+ * else's entry. Entries come in buckets of two: the first slot keeps the deepest result (unless it is left over from
+ * an earlier search), the second always takes whatever the first would not.
+ * <p>
+ * Data layout, low bits first: value (32), depth (8), bound (2), move + 1 (7), search generation (8).
+ */
+public final class TranspositionTable {
+    public static final int UPPER = 1;
+    public static final int LOWER = 2;
+    public static final int EXACT = 3;
+
+    private static final int ENTRY_BYTES = 16;
+
+    private final long[] table;
+    private final int bucketMask;
+    private int generation;
+
+    /** Counted without synchronization, so only approximate while several threads share the table. */
+    public long probes;
+    public long hits;
+
+    public TranspositionTable(int megabytes) {
+        if (megabytes < 1 || megabytes > 8192) {
+            throw new IllegalArgumentException("Table size must be 1 to 8192 MB, got " + megabytes);
+        }
+        // Largest power-of-two bucket count that fits.
+        long buckets = Long.highestOneBit((long) megabytes * 1024 * 1024 / (2 * ENTRY_BYTES));
+        table = new long[(int) buckets * 4];
+        bucketMask = (int) buckets - 1;
+    }
+
+    public int megabytes() {
+        return (int) ((long) table.length * Long.BYTES / (1024 * 1024));
+    }
+
+    /** Starts a new search: entries from earlier searches lose their claim on the depth-preferred slot. */
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+        probes = 0;
+        hits = 0;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(table, 0);
+    }
+
+    public double hitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    /** The data stored for {@code key}, or 0 if there is none. */
+    public long probe(long key) {
+        probes++;
+        int i = index(key);
+        long data = table[i];
+        if ((table[i + 1] ^ data) == key && data != 0) {
+            hits++;
+            return data;
+        }
+        data = table[i + 2];
+        if ((table[i + 3] ^ data) == key && data != 0) {
+            hits++;
+            return data;
+        }
+        return 0;
+    }
+
+    public void store(long key, int depth, int bound, int value, int move) {
+        long data = (value & 0xFFFFFFFFL)
+                | (long) depth << 32
+                | (long) bound << 40
+                | (long) (move + 1) << 42
+                | (long) generation << 49;
+        int i = index(key);
+        long first = table[i];
+        if (first == 0 || (table[i + 1] ^ first) == key || depth(first) <= depth || generation(first) != generation) {
+            table[i] = data;
+            table[i + 1] = key ^ data;
+        } else {
+            table[i + 2] = data;
+            table[i + 3] = key ^ data;
+        }
+    }
+
+    private int index(long key) {
+        return ((int) (key >>> 32) & bucketMask) << 2;
+    }
+
+    public static int value(long data) {
+        return (int) data;
+    }
+
+    public static int depth(long data) {
+        return (int) (data >>> 32) & 0xFF;
+    }
+
+    public static int bound(long data) {
+        return (int) (data >>> 40) & 0x3;
+    }
+
+    /** Best move stored with the entry, or -1. */
+    public static int move(long data) {
+        return ((int) (data >>> 42) & 0x7F) - 1;
+    }
+
+    static int generation(long data) {
+        return (int) (data >>> 49) & 0xFF;
+    }
+}
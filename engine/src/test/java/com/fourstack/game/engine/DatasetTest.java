@@ -0,0 +1,128 @@
+package com.fourstack.game.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes games through {@link DatasetWriter}, plain and gzipped, in chunks and blocks smaller than a game, reads them
+ * back with {@link DatasetReader} and compares every field of every record.
+ */
+class DatasetTest {
+    private static final int[][] BOARDS = { { 6, 7, 4 }, { 9, 10, 5 }, { 5, 5, 3 } };
+    private static final PowerUp[] POWER_UPS = PowerUp.values();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void plainRoundTrip() throws IOException {
+        for (int[] board : BOARDS) roundTrip(directory.resolve("plain-" + board[1]), board, false);
+    }
+
+    @Test
+    void gzipRoundTrip() throws IOException {
+        for (int[] board : BOARDS) roundTrip(directory.resolve("gzip-" + board[1]), board, true);
+    }
+
+    /** One record as the test wrote it, and the grid it packed. */
+    private static final class Expected {
+        final long[] fields;
+        final int[] grid;
+
+        Expected(long[] fields, int[] grid) {
+            this.fields = fields;
+            this.grid = grid;
+        }
+    }
+
+    private static void roundTrip(Path target, int[] board, boolean compress) throws IOException {
+        int rows = board[0], cols = board[1], recordBytes = DatasetWriter.recordBytes(rows, cols);
+        SplittableRandom random = new SplittableRandom(cols);
+        List<Expected> expected = new ArrayList<>();
+        try (DatasetWriter writer = new DatasetWriter(target, rows, cols, board[2], compress, 50, 7)) {
+            ByteBuffer records = ByteBuffer.allocate(200 * recordBytes);
+            for (int g = 0; g < 30; g++) {
+                records.clear();
+                Game game = new Game(rows, cols, board[2]);
+                game.isTwoPlayer = true;
+                game.start(g);
+                int first = expected.size(), winner = random.nextInt(3);
+                for (int turn = random.nextInt(200); turn >= 0 && !game.isOver(); turn--) {
+                    game.p1PowerUp = POWER_UPS[random.nextInt(POWER_UPS.length)];
+                    game.p2PowerUp = POWER_UPS[random.nextInt(POWER_UPS.length)];
+                    game.score = random.nextInt(5000);
+                    game.aiScore = random.nextInt(5000);
+                    game.p1TimeRemaining = random.nextInt(1000) / 7f;
+                    int at = records.position(), value = random.nextInt(-100_000, 100_000);
+                    int column = random.nextInt(-1, cols);
+                    DatasetWriter.pack(game, records);
+                    DatasetWriter.setSearch(records, at, value, column);
+                    expected.add(new Expected(new long[] { game.currentPlayer, winner, game.p1PowerUp.ordinal(),
+                            game.p2PowerUp.ordinal(), game.score, game.aiScore,
+                            Float.floatToIntBits(game.p1TimeRemaining), Float.floatToIntBits(game.p2TimeRemaining),
+                            value, column, game.position.hash() }, grid(game.position)));
+                    int col = random.nextInt(cols);
+                    if (game.dropRow(col) != -1) game.drop(col);
+                    game.tick(0.3f);
+                }
+                for (int at = 0; at < records.position(); at += recordBytes) {
+                    DatasetWriter.setWinner(records, at, winner);
+                }
+                assertEquals(expected.size() - first, records.position() / recordBytes);
+                records.flip();
+                writer.write(records);
+            }
+        }
+
+        try (Stream<Path> files = Files.list(target)) {
+            long chunks = files.filter(file -> file.toString().endsWith(compress ? ".fsd.gz" : ".fsd")).count();
+            assertEquals((expected.size() + 49) / 50, chunks);
+        }
+        Position position = new Position(rows, cols, board[2]);
+        try (DatasetReader reader = DatasetReader.open(target)) {
+            assertEquals(rows, reader.rows);
+            assertEquals(cols, reader.cols);
+            for (Expected record : expected) {
+                assertTrue(reader.next());
+                reader.copyTo(position);
+                assertArrayEquals(record.fields, new long[] { reader.player(), reader.winner(),
+                        reader.powerUp(1).ordinal(), reader.powerUp(2).ordinal(), reader.score(1), reader.score(2),
+                        Float.floatToIntBits(reader.timeRemaining(1)), Float.floatToIntBits(reader.timeRemaining(2)),
+                        reader.value(), reader.column(), position.hash() });
+                assertArrayEquals(record.grid, grid(reader, rows, cols));
+            }
+            assertFalse(reader.next());
+            assertFalse(reader.next());
+        }
+    }
+
+    private static int[] grid(Position position) {
+        int[] grid = new int[position.rows * position.cols];
+        for (int row = 0; row < position.rows; row++) {
+            for (int col = 0; col < position.cols; col++) grid[row * position.cols + col] = position.get(row, col);
+        }
+        return grid;
+    }
+
+    private static int[] grid(DatasetReader reader, int rows, int cols) {
+        int[] grid = new int[rows * cols];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) grid[row * cols + col] = reader.get(row, col);
+        }
+        return grid;
+    }
+}
@@ -0,0 +1,91 @@
+package com.fourstack.game.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Writes small books, maps them back and looks positions up, mirror images and mismatched games included. */
+class OpeningBookTest {
+    private static final int GOAL = 5000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void looksUpWrittenColumnsAndTheirMirrors() throws IOException {
+        Game start = game(GOAL), afterLeft = game(GOAL), afterRight = game(GOAL);
+        afterLeft.drop(1);
+        afterRight.drop(5);
+        long[] keys = { key(start), key(afterLeft) };
+        // A position and its mirror share a record, with the column for whichever of the two has the lower hash.
+        int[] columns = { 3, stored(afterLeft, 4) };
+        Path file = directory.resolve("opening.book");
+        OpeningBook.write(file, 6, 7, 4, GOAL, keys, new int[] { 10, -20 }, columns, keys.length);
+
+        OpeningBook book = OpeningBook.open(file);
+        assertEquals(2, book.size());
+        assertEquals(GOAL, book.scoreGoal);
+        assertEquals(3, book.column(start));
+        assertEquals(4, book.column(afterLeft));
+        assertEquals(2, book.column(afterRight));
+
+        Game unknown = game(GOAL);
+        unknown.drop(0);
+        assertEquals(-1, book.column(unknown));
+    }
+
+    @Test
+    void answersNothingForAnotherGoalOrBoard() throws IOException {
+        Game start = game(GOAL);
+        Path file = directory.resolve("opening.book");
+        OpeningBook.write(file, 6, 7, 4, GOAL, new long[] { key(start) }, new int[] { 0 }, new int[] { 3 }, 1);
+        OpeningBook book = OpeningBook.open(file);
+        assertEquals(3, book.column(start));
+        assertEquals(-1, book.column(game(3000)));
+        Game wider = new Game(6, 8, 4);
+        wider.scoreGoal = GOAL;
+        assertEquals(-1, book.column(wider));
+    }
+
+    @Test
+    void refusesFilesThatAreNotBooks() throws IOException {
+        Path file = directory.resolve("opening.book");
+        OpeningBook.write(file, 6, 7, 4, GOAL, new long[] { 1, 2 }, new int[2], new int[2], 2);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> OpeningBook.open(file));
+
+        byte[] otherVersion = bytes.clone();
+        otherVersion[7] = 1;
+        Files.write(file, otherVersion);
+        assertThrows(IOException.class, () -> OpeningBook.open(file));
+
+        Files.write(file, new byte[OpeningBook.HEADER]);
+        assertThrows(IOException.class, () -> OpeningBook.open(file));
+    }
+
+    private static Game game(int scoreGoal) {
+        Game game = new Game(6, 7, 4);
+        game.scoreGoal = scoreGoal;
+        return game;
+    }
+
+    private static long key(Game game) {
+        Position position = game.position;
+        return OpeningBook.key(Math.min(position.hash(), position.mirrorHash()), game.currentPlayer, 0, 0);
+    }
+
+    /** Column to store for {@code game} so that the book answers {@code col} in it. */
+    private static int stored(Game game, int col) {
+        Position position = game.position;
+        return position.mirrorHash() < position.hash() ? position.cols - 1 - col : col;
+    }
+}
@@ -0,0 +1,199 @@
+package com.fourstack.game.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the incremental state {@link Position} keeps, the hash, the undo log, the threat tables and the pattern
+ * sums, against the same thing worked out from scratch after random play on boards of several shapes.
+ */
+class PositionTest {
+    /** Rows, cols and line length of the boards played on, the lines as long as the 64-bit limit allows included. */
+    private static final int[][] BOARDS = { { 6, 7, 4 }, { 8, 8, 3 }, { 5, 9, 4 }, { 12, 20, 5 }, { 63, 3, 5 },
+            { 3, 64, 6 } };
+
+    private static final int GAMES = 40;
+
+    @Test
+    void unmakeRestoresBoardAndHash() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int[] board : BOARDS) {
+            for (int g = 0; g < GAMES; g++) {
+                Position position = new Position(board[0], board[1], board[2]);
+                int player = 1;
+                for (int m = 0; m < board[0] * board[1]; m++) {
+                    int[] before = grid(position);
+                    long hash = position.hash();
+                    int moves = 0;
+                    for (int i = 1 + random.nextInt(4); i > 0 && makeRandom(position, player, random); i--) {
+                        moves++;
+                        player = 3 - player;
+                    }
+                    for (int i = 0; i < moves; i++) position.unmake();
+                    if (moves % 2 == 1) player = 3 - player;
+                    assertArrayEquals(before, grid(position), "board after unmake");
+                    assertEquals(hash, position.hash(), "hash after unmake");
+                    if (!makeRandom(position, player, random)) break;
+                    player = 3 - player;
+                }
+            }
+        }
+    }
+
+    @Test
+    void hashMatchesRecomputedHashAfterRandomPlay() {
+        SplittableRandom random = new SplittableRandom(2);
+        for (int[] board : BOARDS) {
+            for (int g = 0; g < GAMES; g++) {
+                Position position = new Position(board[0], board[1], board[2]);
+                int player = 1;
+                for (int m = 0; m < board[0] * board[1]; m++) {
+                    if (random.nextInt(8) == 0 && position.canUnmake()) position.unmake();
+                    else if (makeRandom(position, player, random)) player = 3 - player;
+                    assertEquals(position.computeHash(), position.hash());
+                }
+                assertEquals(position.computeHash(), new Position(position).hash());
+            }
+        }
+    }
+
+    @Test
+    void threatTablesMatchFreshRebuild() {
+        SplittableRandom random = new SplittableRandom(3);
+        for (int[] board : BOARDS) {
+            for (int g = 0; g < GAMES; g++) {
+                Position position = new Position(board[0], board[1], board[2]);
+                int player = 1;
+                for (int m = 0; m < board[0] * board[1]; m++) {
+                    if (random.nextInt(8) == 0 && position.canUnmake()) position.unmake();
+                    else if (makeRandom(position, player, random)) player = 3 - player;
+                    if (random.nextInt(3) == 0) assertSameThreats(rebuild(position, null), position);
+                }
+            }
+        }
+    }
+
+    @Test
+    void patternValuesMatchFreshRebuild() {
+        SplittableRandom random = new SplittableRandom(4);
+        for (int[] board : BOARDS) {
+            PatternWeights weights = new PatternWeights(board[0], board[1], board[2]);
+            for (int i = 0; i < weights.values.length; i++) weights.values[i] = random.nextInt(-500, 500);
+            for (int g = 0; g < GAMES; g++) {
+                Position position = new Position(board[0], board[1], board[2]);
+                position.usePatterns(weights);
+                int player = 1;
+                for (int m = 0; m < board[0] * board[1]; m++) {
+                    if (random.nextInt(8) == 0 && position.canUnmake()) position.unmake();
+                    else if (makeRandom(position, player, random)) player = 3 - player;
+                    if (random.nextInt(3) != 0) continue;
+                    position.updateThreats();
+                    Position fresh = rebuild(position, weights);
+                    assertEquals(fresh.patternValue(1), position.patternValue(1));
+                    assertEquals(fresh.patternValue(2), position.patternValue(2));
+                    assertEquals(sumOfWindows(position, weights), position.patternValue(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    void mirrorHashIsTheMirroredBoardsHash() {
+        SplittableRandom random = new SplittableRandom(5);
+        for (int[] board : BOARDS) {
+            int cols = board[1];
+            for (int g = 0; g < GAMES; g++) {
+                Position position = new Position(board[0], board[1], board[2]);
+                Position mirrored = new Position(board[0], board[1], board[2]);
+                Position symmetric = new Position(board[0], board[1], board[2]);
+                int player = 1;
+                for (int m = 0; m < board[0] * board[1]; m++) {
+                    int col = random.nextInt(cols);
+                    if (!position.drop(col, player)) continue;
+                    mirrored.drop(cols - 1 - col, player);
+                    if (symmetric.dropRow(col) != -1 && symmetric.dropRow(cols - 1 - col) != -1) {
+                        symmetric.drop(col, player);
+                        if (col != cols - 1 - col) symmetric.drop(cols - 1 - col, player);
+                    }
+                    player = 3 - player;
+                    assertEquals(mirrored.hash(), position.mirrorHash());
+                    assertEquals(position.hash(), mirrored.mirrorHash());
+                    assertEquals(symmetric.hash(), symmetric.mirrorHash());
+                }
+            }
+        }
+    }
+
+    /**
+     * Plays a random move for {@code player}: mostly a drop, now and then a bomb or bullet. Returns false if the board
+     * is full, so nothing could be played.
+     */
+    private static boolean makeRandom(Position position, int player, SplittableRandom random) {
+        if (random.nextInt(10) == 0 && !position.isEmpty()) {
+            int cell = position.nthPiece(random.nextInt(position.pieceCount()));
+            PowerUp type = random.nextBoolean() ? PowerUp.BOMB : PowerUp.BULLET;
+            return position.makeShot(type, random.nextBoolean(), position.rowOf(cell), position.colOf(cell)) >= 0;
+        }
+        int open = 0;
+        for (int c = 0; c < position.cols; c++) {
+            if (position.dropRow(c) != -1) open++;
+        }
+        if (open == 0) return false;
+        for (int c = 0, n = random.nextInt(open); ; c++) {
+            if (position.dropRow(c) != -1 && n-- == 0) return position.make(c, player) >= 0;
+        }
+    }
+
+    private static int[] grid(Position position) {
+        int[] grid = new int[position.rows * position.cols];
+        for (int row = 0; row < position.rows; row++) {
+            for (int col = 0; col < position.cols; col++) grid[row * position.cols + col] = position.get(row, col);
+        }
+        return grid;
+    }
+
+    /** A new position with the same pieces, dropped column by column from the floor up, with its tables updated. */
+    private static Position rebuild(Position position, PatternWeights weights) {
+        Position fresh = new Position(position.rows, position.cols, position.lineLength);
+        fresh.usePatterns(weights);
+        for (int col = 0; col < position.cols; col++) {
+            for (int row = position.rows - 1; row >= 0 && position.get(row, col) != 0; row--) {
+                fresh.drop(col, position.get(row, col));
+            }
+        }
+        fresh.updateThreats();
+        assertEquals(fresh.hash(), position.hash(), "rebuilt hash");
+        return fresh;
+    }
+
+    private static void assertSameThreats(Position expected, Position actual) {
+        actual.updateThreats();
+        for (int player = 1; player <= 2; player++) {
+            assertEquals(expected.threatCells(player), actual.threatCells(player), "threat cells");
+            assertEquals(expected.comboCells(player), actual.comboCells(player), "combo cells");
+            for (int col = 0; col < actual.cols; col++) {
+                assertEquals(expected.threatColumn(player, col), actual.threatColumn(player, col), "threat column");
+                for (int row = 0; row < actual.rows; row++) {
+                    int cell = actual.cell(row, col);
+                    assertEquals(expected.isThreat(player, cell), actual.isThreat(player, cell), "threat cell");
+                }
+            }
+        }
+    }
+
+    /** Player 1's pattern value summed window by window from {@link Position#patternStates}. */
+    private static int sumOfWindows(Position position, PatternWeights weights) {
+        int[] own = new int[weights.windows], other = new int[weights.windows];
+        position.patternStates(1, weights.ternary, own);
+        position.patternStates(2, weights.ternary, other);
+        int value = 0;
+        for (int w = 0; w < weights.windows; w++) {
+            value += weights.values[w * weights.states + own[w]] - weights.values[w * weights.states + other[w]];
+        }
+        return value;
+    }
+}